@@ -5,7 +5,11 @@ commands : command+;
 command :
     put_command
     | get_command
+    | mget_command
+    | scan_command
+    | prefix_command
     | delete_command
+    | delete_range_command
     | cas_command
     | flush_command
     | engine_command
@@ -20,10 +24,26 @@ get_command :
     'get' KEYSTRING LINEEND
     ;
 
+mget_command :
+    'mget' KEYSTRING+ LINEEND
+    ;
+
+scan_command :
+    'scan' KEYSTRING ',' KEYSTRING (',' KEYSTRING)? LINEEND
+    ;
+
+prefix_command :
+    'prefix' KEYSTRING (',' KEYSTRING)? LINEEND
+    ;
+
 delete_command :
     'delete' KEYSTRING LINEEND
     ;
 
+delete_range_command :
+    'deleterange' KEYSTRING ',' KEYSTRING LINEEND
+    ;
+
 cas_command :
     'cas' KEYSTRING  ',' VALUESTRING  ',' VALUESTRING LINEEND
     ;
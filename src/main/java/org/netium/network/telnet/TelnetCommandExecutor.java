@@ -16,6 +16,7 @@ import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.TerminalNode;
 import org.netium.cli.cliBaseListener;
 import org.netium.cli.cliLexer;
 import org.netium.cli.cliParser;
@@ -24,10 +25,13 @@ import org.netium.server.storageengine.command.CommandResult;
 import org.netium.server.storageengine.command.ResultHandler;
 import org.netium.server.storageengine.command.ResultStatus;
 import org.netium.server.storageengine.lsm.LsmStorageEngine;
+import org.netium.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Scanner;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -35,6 +39,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class TelnetCommandExecutor extends cliBaseListener {
     private final Logger logger = LoggerFactory.getLogger(TelnetCommandExecutor.class);
 
+    private final static int DEFAULT_SCAN_LIMIT = 100;
+
     private final StorageEngine storageEngine;
 
     private LinkedBlockingQueue<CommandResult> commandResultQueue = new LinkedBlockingQueue<CommandResult>();
@@ -84,6 +90,41 @@ public class TelnetCommandExecutor extends cliBaseListener {
         processCommandResult();
     }
 
+    @Override
+    public void exitMget_command(cliParser.Mget_commandContext ctx) {
+        if (ctx.exception != null)
+            return;
+        List<String> keys = new ArrayList<>();
+        for (TerminalNode key : ctx.KEYSTRING()) {
+            keys.add(key.getText());
+        }
+        storageEngine.multiGet(keys, new ExecutorCommandResultHandler());
+        processCommandResult();
+    }
+
+    @Override
+    public void exitScan_command(cliParser.Scan_commandContext ctx) {
+        if (ctx.exception != null)
+            return;
+        Integer limit = parseLimit(ctx.KEYSTRING().size() > 2 ? ctx.KEYSTRING(2).getText() : null);
+        if (limit == null)
+            return;
+        storageEngine.scan(ctx.KEYSTRING(0).getText(), ctx.KEYSTRING(1).getText(), limit,
+                new ExecutorCommandResultHandler());
+        processCommandResult();
+    }
+
+    @Override
+    public void exitPrefix_command(cliParser.Prefix_commandContext ctx) {
+        if (ctx.exception != null)
+            return;
+        Integer limit = parseLimit(ctx.KEYSTRING().size() > 1 ? ctx.KEYSTRING(1).getText() : null);
+        if (limit == null)
+            return;
+        storageEngine.prefix(ctx.KEYSTRING(0).getText(), limit, new ExecutorCommandResultHandler());
+        processCommandResult();
+    }
+
     @Override
     public void exitDelete_command(cliParser.Delete_commandContext ctx) {
         if (ctx.exception != null)
@@ -92,6 +133,15 @@ public class TelnetCommandExecutor extends cliBaseListener {
         processCommandResult();
     }
 
+    @Override
+    public void exitDelete_range_command(cliParser.Delete_range_commandContext ctx) {
+        if (ctx.exception != null)
+            return;
+        storageEngine.deleteRange(ctx.KEYSTRING(0).getText(), ctx.KEYSTRING(1).getText(),
+                new ExecutorCommandResultHandler());
+        processCommandResult();
+    }
+
     @Override
     public void exitCas_command(cliParser.Cas_commandContext ctx) {
         if (ctx.exception != null)
@@ -133,6 +183,20 @@ public class TelnetCommandExecutor extends cliBaseListener {
         clientWantExiting = true;
     }
 
+    private Integer parseLimit(String limitString) {
+        if (limitString == null)
+            return DEFAULT_SCAN_LIMIT;
+        try {
+            int limit = Integer.parseInt(limitString);
+            if (limit > 0)
+                return limit;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        outputPrintStream.println("The limit must be a positive number");
+        return null;
+    }
+
     private String normalizeValueString(String valueString) {
         StringBuilder sb = new StringBuilder(valueString);
         sb.deleteCharAt(sb.length() - 1);
@@ -148,6 +212,12 @@ public class TelnetCommandExecutor extends cliBaseListener {
                 if (commandResult.getReturnValue() != null) {
                     outputPrintStream.println("Value: " + commandResult.getReturnValue());
                 }
+                if (commandResult.getReturnItems() != null) {
+                    for (Pair<String, String> item : commandResult.getReturnItems()) {
+                        outputPrintStream.println(item.getKey() + ": " + item.getValue());
+                    }
+                    outputPrintStream.println("Items: " + commandResult.getReturnItems().size());
+                }
             } else if (commandResult.getStatus() == ResultStatus.FAILED) {
                 outputPrintStream.println("Failed");
             } else if (commandResult.getStatus() == ResultStatus.OVERLOAD) {
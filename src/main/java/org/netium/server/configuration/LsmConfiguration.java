@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class LsmConfiguration {
+    public final static String MEMTABLE_TYPE_HEAP = "heap";
+    public final static String MEMTABLE_TYPE_OFFHEAP = "offheap";
+    public final static String COMPACTION_STRATEGY_LEVELED = "leveled";
+    public final static String COMPACTION_STRATEGY_SIZE_TIERED = "sizetiered";
+    public final static String SSTABLE_COMPRESSION_NONE = "none";
+    public final static String SSTABLE_COMPRESSION_DEFLATE = "deflate";
+    public final static String PREFIX_EXTRACTOR_NONE = "none";
+
+    private int walGroupCommitBatchSize = 256;
+    private long walGroupCommitMaxWaitMillis = 0;
+    private int walSegmentSize = 8 * 1024 * 1024;
+    private int sstableBlockSize = 4 * 1024;
+    private String sstableCompression = SSTABLE_COMPRESSION_NONE;
+    private int sstableRestartInterval = 16;
+    private String prefixExtractor = PREFIX_EXTRACTOR_NONE;
+    private List<Double> bloomFilterFalsePositiveRates = Collections.singletonList(0.01);
+    private long blockCacheSize = 8 * 1024 * 1024;
+    private int readThreadPoolSize = 0;
+    private int maxScanLimit = 10000;
+    private String memtableType = MEMTABLE_TYPE_HEAP;
+    private long memtableSize = 4 * 1024 * 1024;
+    private int memtableSlowdownTrigger = 3;
+    private int memtableStopTrigger = 6;
+    private long writeSlowdownMicros = 1000;
+    private int flushThreadPoolSize = 2;
+    private int level0CompactionTrigger = 4;
+    private long levelBaseSize = 32 * 1024 * 1024;
+    private int levelSizeMultiplier = 10;
+    private long sstableTargetSize = 4 * 1024 * 1024;
+    private String compactionStrategy = COMPACTION_STRATEGY_LEVELED;
+    private double sizeTieredBucketRatio = 2.0;
+    private int sizeTieredMinThreshold = 4;
+    private int compactionThreadPoolSize = 0;
+    private long compactionRateLimit = 64 * 1024 * 1024;
+
+    public int getWalGroupCommitBatchSize() {
+        return walGroupCommitBatchSize;
+    }
+
+    public void setWalGroupCommitBatchSize(int walGroupCommitBatchSize) {
+        if (walGroupCommitBatchSize <= 0)
+            throw new IllegalArgumentException("The walGroupCommitBatchSize must be > 0");
+        this.walGroupCommitBatchSize = walGroupCommitBatchSize;
+    }
+
+    public long getWalGroupCommitMaxWaitMillis() {
+        return walGroupCommitMaxWaitMillis;
+    }
+
+    public void setWalGroupCommitMaxWaitMillis(long walGroupCommitMaxWaitMillis) {
+        if (walGroupCommitMaxWaitMillis < 0)
+            throw new IllegalArgumentException("The walGroupCommitMaxWaitMillis must be >= 0");
+        this.walGroupCommitMaxWaitMillis = walGroupCommitMaxWaitMillis;
+    }
+
+    public int getWalSegmentSize() {
+        return walSegmentSize;
+    }
+
+    public void setWalSegmentSize(int walSegmentSize) {
+        if (walSegmentSize <= 0)
+            throw new IllegalArgumentException("The walSegmentSize must be > 0");
+        this.walSegmentSize = walSegmentSize;
+    }
+
+    public int getSstableBlockSize() {
+        return sstableBlockSize;
+    }
+
+    public void setSstableBlockSize(int sstableBlockSize) {
+        if (sstableBlockSize <= 0)
+            throw new IllegalArgumentException("The sstableBlockSize must be > 0");
+        this.sstableBlockSize = sstableBlockSize;
+    }
+
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public void setBlockCacheSize(long blockCacheSize) {
+        if (blockCacheSize < 0)
+            throw new IllegalArgumentException("The blockCacheSize must be >= 0");
+        this.blockCacheSize = blockCacheSize;
+    }
+
+    /**
+     * The number of read threads, one per processor unless it is configured.
+     */
+    public int getReadThreadPoolSize() {
+        return readThreadPoolSize > 0 ? readThreadPoolSize : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Sets the number of read threads, 0 means one per processor.
+     */
+    public void setReadThreadPoolSize(int readThreadPoolSize) {
+        if (readThreadPoolSize < 0)
+            throw new IllegalArgumentException("The readThreadPoolSize must be >= 0");
+        this.readThreadPoolSize = readThreadPoolSize;
+    }
+
+    public int getMaxScanLimit() {
+        return maxScanLimit;
+    }
+
+    /**
+     * Sets the largest number of items a scan or a prefix query may ask for.
+     */
+    public void setMaxScanLimit(int maxScanLimit) {
+        if (maxScanLimit <= 0)
+            throw new IllegalArgumentException("The maxScanLimit must be > 0");
+        this.maxScanLimit = maxScanLimit;
+    }
+
+    public String getMemtableType() {
+        return memtableType;
+    }
+
+    public void setMemtableType(String memtableType) {
+        if (!MEMTABLE_TYPE_HEAP.equals(memtableType) && !MEMTABLE_TYPE_OFFHEAP.equals(memtableType))
+            throw new IllegalArgumentException("The memtableType must be " + MEMTABLE_TYPE_HEAP + " or " + MEMTABLE_TYPE_OFFHEAP);
+        this.memtableType = memtableType;
+    }
+
+    public long getMemtableSize() {
+        return memtableSize;
+    }
+
+    public void setMemtableSize(long memtableSize) {
+        if (memtableSize <= 0)
+            throw new IllegalArgumentException("The memtableSize must be > 0");
+        this.memtableSize = memtableSize;
+    }
+
+    public int getMemtableSlowdownTrigger() {
+        return memtableSlowdownTrigger;
+    }
+
+    public void setMemtableSlowdownTrigger(int memtableSlowdownTrigger) {
+        if (memtableSlowdownTrigger <= 0)
+            throw new IllegalArgumentException("The memtableSlowdownTrigger must be > 0");
+        this.memtableSlowdownTrigger = memtableSlowdownTrigger;
+    }
+
+    public int getMemtableStopTrigger() {
+        return memtableStopTrigger;
+    }
+
+    public void setMemtableStopTrigger(int memtableStopTrigger) {
+        if (memtableStopTrigger <= 0)
+            throw new IllegalArgumentException("The memtableStopTrigger must be > 0");
+        this.memtableStopTrigger = memtableStopTrigger;
+    }
+
+    /**
+     * Checks the settings which depend on each other, the setters can only check each setting on its own
+     * since they are called in the order of the configuration file.
+     */
+    public void validate() {
+        if (memtableSlowdownTrigger >= memtableStopTrigger)
+            throw new IllegalArgumentException("The memtableSlowdownTrigger must be < the memtableStopTrigger");
+    }
+
+    public long getWriteSlowdownMicros() {
+        return writeSlowdownMicros;
+    }
+
+    public void setWriteSlowdownMicros(long writeSlowdownMicros) {
+        if (writeSlowdownMicros < 0)
+            throw new IllegalArgumentException("The writeSlowdownMicros must be >= 0");
+        this.writeSlowdownMicros = writeSlowdownMicros;
+    }
+
+    public int getFlushThreadPoolSize() {
+        return flushThreadPoolSize;
+    }
+
+    public void setFlushThreadPoolSize(int flushThreadPoolSize) {
+        if (flushThreadPoolSize <= 0)
+            throw new IllegalArgumentException("The flushThreadPoolSize must be > 0");
+        this.flushThreadPoolSize = flushThreadPoolSize;
+    }
+
+    public int getLevel0CompactionTrigger() {
+        return level0CompactionTrigger;
+    }
+
+    public void setLevel0CompactionTrigger(int level0CompactionTrigger) {
+        if (level0CompactionTrigger <= 0)
+            throw new IllegalArgumentException("The level0CompactionTrigger must be > 0");
+        this.level0CompactionTrigger = level0CompactionTrigger;
+    }
+
+    public long getLevelBaseSize() {
+        return levelBaseSize;
+    }
+
+    public void setLevelBaseSize(long levelBaseSize) {
+        if (levelBaseSize <= 0)
+            throw new IllegalArgumentException("The levelBaseSize must be > 0");
+        this.levelBaseSize = levelBaseSize;
+    }
+
+    public int getLevelSizeMultiplier() {
+        return levelSizeMultiplier;
+    }
+
+    public void setLevelSizeMultiplier(int levelSizeMultiplier) {
+        if (levelSizeMultiplier <= 1)
+            throw new IllegalArgumentException("The levelSizeMultiplier must be > 1");
+        this.levelSizeMultiplier = levelSizeMultiplier;
+    }
+
+    public long getSstableTargetSize() {
+        return sstableTargetSize;
+    }
+
+    public void setSstableTargetSize(long sstableTargetSize) {
+        if (sstableTargetSize <= 0)
+            throw new IllegalArgumentException("The sstableTargetSize must be > 0");
+        this.sstableTargetSize = sstableTargetSize;
+    }
+
+    public String getCompactionStrategy() {
+        return compactionStrategy;
+    }
+
+    public void setCompactionStrategy(String compactionStrategy) {
+        if (!COMPACTION_STRATEGY_LEVELED.equals(compactionStrategy) && !COMPACTION_STRATEGY_SIZE_TIERED.equals(compactionStrategy))
+            throw new IllegalArgumentException("The compactionStrategy must be " + COMPACTION_STRATEGY_LEVELED + " or " + COMPACTION_STRATEGY_SIZE_TIERED);
+        this.compactionStrategy = compactionStrategy;
+    }
+
+    public double getSizeTieredBucketRatio() {
+        return sizeTieredBucketRatio;
+    }
+
+    public void setSizeTieredBucketRatio(double sizeTieredBucketRatio) {
+        if (sizeTieredBucketRatio <= 1.0)
+            throw new IllegalArgumentException("The sizeTieredBucketRatio must be > 1");
+        this.sizeTieredBucketRatio = sizeTieredBucketRatio;
+    }
+
+    public int getSizeTieredMinThreshold() {
+        return sizeTieredMinThreshold;
+    }
+
+    public void setSizeTieredMinThreshold(int sizeTieredMinThreshold) {
+        if (sizeTieredMinThreshold < 2)
+            throw new IllegalArgumentException("The sizeTieredMinThreshold must be >= 2");
+        this.sizeTieredMinThreshold = sizeTieredMinThreshold;
+    }
+
+    /**
+     * The number of compaction threads, one per two processors unless it is configured.
+     */
+    public int getCompactionThreadPoolSize() {
+        return compactionThreadPoolSize > 0 ? compactionThreadPoolSize : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Sets the number of compaction threads, 0 means one per two processors.
+     */
+    public void setCompactionThreadPoolSize(int compactionThreadPoolSize) {
+        if (compactionThreadPoolSize < 0)
+            throw new IllegalArgumentException("The compactionThreadPoolSize must be >= 0");
+        this.compactionThreadPoolSize = compactionThreadPoolSize;
+    }
+
+    public long getCompactionRateLimit() {
+        return compactionRateLimit;
+    }
+
+    public void setCompactionRateLimit(long compactionRateLimit) {
+        if (compactionRateLimit < 0)
+            throw new IllegalArgumentException("The compactionRateLimit must be >= 0");
+        this.compactionRateLimit = compactionRateLimit;
+    }
+
+    public String getSstableCompression() {
+        return sstableCompression;
+    }
+
+    public void setSstableCompression(String sstableCompression) {
+        if (!SSTABLE_COMPRESSION_NONE.equals(sstableCompression) && !SSTABLE_COMPRESSION_DEFLATE.equals(sstableCompression))
+            throw new IllegalArgumentException("The sstableCompression must be " + SSTABLE_COMPRESSION_NONE + " or " + SSTABLE_COMPRESSION_DEFLATE);
+        this.sstableCompression = sstableCompression;
+    }
+
+    public int getSstableRestartInterval() {
+        return sstableRestartInterval;
+    }
+
+    public void setSstableRestartInterval(int sstableRestartInterval) {
+        if (sstableRestartInterval <= 0)
+            throw new IllegalArgumentException("The sstableRestartInterval must be > 0");
+        this.sstableRestartInterval = sstableRestartInterval;
+    }
+
+    public String getPrefixExtractor() {
+        return prefixExtractor;
+    }
+
+    /**
+     * Sets the extractor of the key prefixes for the prefix bloom filters: none, fixed:N for the first N
+     * characters or delimiter:C for the characters up to and including the first C.
+     */
+    public void setPrefixExtractor(String prefixExtractor) {
+        if (prefixExtractor == null || !prefixExtractor.matches(PREFIX_EXTRACTOR_NONE + "|fixed:[1-9][0-9]*|delimiter:."))
+            throw new IllegalArgumentException("The prefixExtractor must be " + PREFIX_EXTRACTOR_NONE + ", fixed:N or delimiter:C");
+        this.prefixExtractor = prefixExtractor;
+    }
+
+    public List<Double> getBloomFilterFalsePositiveRates() {
+        return bloomFilterFalsePositiveRates;
+    }
+
+    /**
+     * Sets the false positive rate of the bloom filters by level, the last rate applies to the deeper levels.
+     */
+    public void setBloomFilterFalsePositiveRates(List<Double> bloomFilterFalsePositiveRates) {
+        if (bloomFilterFalsePositiveRates == null || bloomFilterFalsePositiveRates.isEmpty())
+            throw new IllegalArgumentException("The bloomFilterFalsePositiveRates must not be empty");
+        for (Double rate : bloomFilterFalsePositiveRates) {
+            if (rate == null || rate <= 0 || rate >= 1)
+                throw new IllegalArgumentException("The bloomFilterFalsePositiveRates must be in (0, 1)");
+        }
+        this.bloomFilterFalsePositiveRates = Collections.unmodifiableList(new ArrayList<>(bloomFilterFalsePositiveRates));
+    }
+
+    public double getBloomFilterFalsePositiveRate(int level) {
+        return bloomFilterFalsePositiveRates.get(Math.min(level, bloomFilterFalsePositiveRates.size() - 1));
+    }
+}
@@ -27,6 +27,7 @@ public final class ServerConfiguration {
     private String dbPath;
     private Map<String, String> cluster;
     private Map<String, String> single;
+    private LsmConfiguration lsm = new LsmConfiguration();
 
     public String getMode() {
         return mode;
@@ -60,13 +61,22 @@ public final class ServerConfiguration {
         this.single = single;
     }
 
+    public LsmConfiguration getLsm() {
+        return lsm;
+    }
+
+    public void setLsm(LsmConfiguration lsm) {
+        this.lsm = lsm == null ? new LsmConfiguration() : lsm;
+    }
+
     public static ServerConfiguration loadFromFile(String filename) throws ServerConfigurationLoadException {
         ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
 
         ServerConfiguration config = null;
         try {
             config = mapper.readValue(new File(filename), ServerConfiguration.class);
-        } catch (IOException e) {
+            config.getLsm().validate();
+        } catch (IOException | IllegalArgumentException e) {
             throw new ServerConfigurationLoadException(filename, e);
         }
         System.out.println("Server Configuration:" + ReflectionToStringBuilder.toString(config, ToStringStyle.MULTI_LINE_STYLE));
@@ -15,12 +15,17 @@ package org.netium.server.storageengine;
 import org.netium.server.storageengine.command.ResultHandler;
 
 import java.io.Closeable;
+import java.util.List;
 
 public interface StorageEngine extends Closeable {
     void start();
     void put(String key, String value, ResultHandler resultHandler);
     void read(String key, ResultHandler resultHandler);
+    void multiGet(List<String> keys, ResultHandler resultHandler);
+    void scan(String startKey, String endKey, int limit, ResultHandler resultHandler);
+    void prefix(String prefix, int limit, ResultHandler resultHandler);
     void delete(String key, ResultHandler resultHandler);
+    void deleteRange(String startKey, String endKey, ResultHandler resultHandler);
     void compareAndSet(String key, String oldValue, String newValue, ResultHandler resultHandler);
     void getDiagnosisInfo(ResultHandler resultHandler);
     void flush(ResultHandler resultHandler);
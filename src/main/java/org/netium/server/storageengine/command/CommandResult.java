@@ -12,10 +12,15 @@
 
 package org.netium.server.storageengine.command;
 
+import org.netium.util.Pair;
+
+import java.util.List;
+
 public class CommandResult {
     private final ResultStatus status;
     private final Throwable errorCause;
     private final String returnValue;
+    private final List<Pair<String, String>> returnItems;
 
     public CommandResult(ResultStatus status) {
         this(status, null, null);
@@ -28,9 +33,17 @@ public class CommandResult {
     public CommandResult(ResultStatus status, String value, Throwable errorCause) {
         this.status = status;
         this.returnValue = value;
+        this.returnItems = null;
         this.errorCause = errorCause;
     }
 
+    public CommandResult(ResultStatus status, List<Pair<String, String>> items) {
+        this.status = status;
+        this.returnValue = null;
+        this.returnItems = items;
+        this.errorCause = null;
+    }
+
     public ResultStatus getStatus() {
         return status;
     }
@@ -39,6 +52,14 @@ public class CommandResult {
         return returnValue;
     }
 
+    /**
+     * The key/value pairs returned by a scan, or by a multi-get in the order of its keys with a null value
+     * for a missing key, or null for the other commands.
+     */
+    public List<Pair<String, String>> getReturnItems() {
+        return returnItems;
+    }
+
     public Throwable getErrorCause() {
         return errorCause;
     }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.command;
+
+public final class ScanCommand extends KeyBaseCommand {
+    private final String endKey;
+    private final int limit;
+
+    /**
+     * Scans the keys with startKey <= key < endKey, a null bound is unbounded.
+     */
+    public ScanCommand(String startKey, String endKey, int limit, ResultHandler resultHandler) {
+        super(startKey, resultHandler);
+        this.endKey = endKey;
+        this.limit = limit;
+    }
+
+    public String getEndKey() {
+        return endKey;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
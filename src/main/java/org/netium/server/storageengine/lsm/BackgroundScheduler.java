@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * One pool for the background work of the engine. Queued jobs start in the order of their priority and then
+ * of their submission, so a flush waiting for a thread always goes before a compaction.
+ */
+public class BackgroundScheduler {
+    public enum Priority {
+        FLUSH,
+        COMPACTION
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public BackgroundScheduler(int nThreads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> new Thread(runnable, "lsm-background-" + threadNumber.incrementAndGet()));
+    }
+
+    public <T> CompletableFuture<T> submit(Priority priority, Supplier<T> job) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(new Job(priority, sequence.incrementAndGet(), () -> {
+            try {
+                future.complete(job.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }));
+        return future;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Interrupts the running jobs and drops the queued ones, whose futures never complete.
+     */
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private static final class Job implements Runnable, Comparable<Job> {
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable body;
+
+        Job(Priority priority, long sequence, Runnable body) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            body.run();
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int cmp = priority.compareTo(other.priority);
+            if (cmp != 0)
+                return cmp;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
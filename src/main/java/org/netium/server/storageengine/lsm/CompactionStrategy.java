@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.netium.server.storageengine.lsm.sstable.SSTable;
+
+import java.util.List;
+
+/**
+ * Decides which SSTables are merged together by the background compaction.
+ */
+public interface CompactionStrategy {
+    /**
+     * Picks the next compaction, or returns null if nothing needs to be compacted. The SSTables are given in
+     * the search order of the engine: level by level, the level 0 from the newest to the oldest.
+     */
+    CompactionTask pickCompaction(List<SSTable> sstables);
+}
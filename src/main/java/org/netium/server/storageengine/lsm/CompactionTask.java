@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.netium.server.storageengine.lsm.sstable.SSTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class CompactionTask {
+    private final int level;
+    private final int outputLevel;
+    private final List<SSTable> inputs;
+    private final List<SSTable> olderTables;
+
+    /**
+     * The inputs must be ordered from the newest to the oldest data, a key found in an input shadows
+     * the same key in all the following inputs. The older tables are the SSTables outside of the task
+     * which may hold older versions of the keys, a tombstone is kept as long as it may shadow one of them.
+     */
+    public CompactionTask(int level, int outputLevel, List<SSTable> inputs, List<SSTable> olderTables) {
+        if (inputs == null || inputs.isEmpty())
+            throw new IllegalArgumentException("The inputs are empty");
+        if (olderTables == null)
+            throw new IllegalArgumentException("The olderTables is null");
+
+        this.level = level;
+        this.outputLevel = outputLevel;
+        this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+        this.olderTables = Collections.unmodifiableList(new ArrayList<>(olderTables));
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+
+    public List<SSTable> getInputs() {
+        return inputs;
+    }
+
+    public List<SSTable> getOlderTables() {
+        return olderTables;
+    }
+
+    /**
+     * Returns true if no older table holds a key with startKey <= key <= endKey, so that the tombstones of
+     * the range shadow nothing and can be dropped.
+     */
+    public boolean canDropTombstones(String startKey, String endKey) {
+        for (SSTable olderTable : olderTables) {
+            if (olderTable.overlaps(startKey, endKey))
+                return false;
+        }
+        return true;
+    }
+
+    public long getInputSize() {
+        long size = 0;
+        for (SSTable input : inputs) {
+            size += input.getFileSize();
+        }
+        return size;
+    }
+
+    public long getMinSequence() {
+        long minSequence = Long.MAX_VALUE;
+        for (SSTable input : inputs) {
+            minSequence = Math.min(minSequence, input.getMinSequence());
+        }
+        return inputs.isEmpty() ? 0 : minSequence;
+    }
+
+    public long getMaxSequence() {
+        long maxSequence = 0;
+        for (SSTable input : inputs) {
+            maxSequence = Math.max(maxSequence, input.getMaxSequence());
+        }
+        return maxSequence;
+    }
+
+    @Override
+    public String toString() {
+        return "L" + level + " -> L" + outputLevel + ", " + inputs.size() + " tables, " + getInputSize() + " bytes";
+    }
+}
@@ -15,6 +15,7 @@ package org.netium.server.storageengine.lsm;
 import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 public final class DBFilenameUtil {
@@ -22,6 +23,8 @@ public final class DBFilenameUtil {
 
     public static final String DBFILE_EXTENSION = ".db";
 
+    private static final AtomicLong LAST_FILE_NUMBER = new AtomicLong();
+
     public static long getFileOrderIndex(String filename) {
         String filenameWithoutExtension = filename.substring(0, filename.lastIndexOf('.'));
         String orderIndex = filenameWithoutExtension.split("-")[0];
@@ -41,15 +44,37 @@ public final class DBFilenameUtil {
     }
 
     public static String generateNewSSTableDBName() {
-        return System.currentTimeMillis() + DBFILE_EXTENSION;
+        return nextFileNumber() + DBFILE_EXTENSION;
+    }
+
+    /**
+     * Returns a file number which follows the wall clock but is strictly increasing, so that several
+     * SSTables created in the same millisecond still get distinct names in their creation order.
+     */
+    public static long nextFileNumber() {
+        return LAST_FILE_NUMBER.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+
+    /**
+     * Returns the name of an SSTable merged from others, it sorts with the given order index of the newest
+     * merged SSTable and has a new file number as suffix to be unique.
+     */
+    public static String generateNewMergedDBName(long orderIndex) {
+        return orderIndex + "-" + nextFileNumber() + DBFILE_EXTENSION;
+    }
+
+    public static void advanceFileNumber(long fileNumber) {
+        LAST_FILE_NUMBER.accumulateAndGet(fileNumber, Math::max);
     }
 
-    public static String generateNewMergedDBName(Stream<File> files) {
-        File latestFile = getLatestFilename(files);
-        String latestFileName = latestFile.getName();
-        String nameWithoutExtension = latestFileName.substring(0, latestFileName.lastIndexOf('.'));
-        nameWithoutExtension = nameWithoutExtension + "-m";
-        String newMergedDBName = nameWithoutExtension + DBFILE_EXTENSION;
-        return newMergedDBName;
+    public static void advanceFileNumber(String filename) {
+        String filenameWithoutExtension = filename.substring(0, filename.lastIndexOf('.'));
+        for (String part : filenameWithoutExtension.split("-")) {
+            try {
+                advanceFileNumber(Long.parseLong(part));
+            } catch (NumberFormatException e) {
+                // The legacy merged SSTables have a non numeric suffix
+            }
+        }
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.netium.server.configuration.LsmConfiguration;
+import org.netium.server.storageengine.lsm.sstable.SSTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Leveled compaction: L0 holds the flushed SSTables which may overlap each other, every deeper level holds
+ * SSTables with disjoint key ranges and may grow to levelSizeMultiplier times the size of the level above.
+ * A compaction merges one level into the overlapping SSTables of the next one, so only the overlapping part
+ * of the next level is rewritten.
+ */
+public class LeveledCompactionStrategy implements CompactionStrategy {
+    public final static int MAX_LEVELS = 7;
+
+    private final int level0CompactionTrigger;
+    private final long levelBaseSize;
+    private final int levelSizeMultiplier;
+
+    private final String[] compactPointers = new String[MAX_LEVELS];
+
+    public LeveledCompactionStrategy(LsmConfiguration configuration) {
+        this.level0CompactionTrigger = configuration.getLevel0CompactionTrigger();
+        this.levelBaseSize = configuration.getLevelBaseSize();
+        this.levelSizeMultiplier = configuration.getLevelSizeMultiplier();
+    }
+
+    @Override
+    public CompactionTask pickCompaction(List<SSTable> sstables) {
+        List<List<SSTable>> levels = groupByLevel(sstables);
+
+        int bestLevel = -1;
+        double bestScore = 0;
+        for (int level = 0; level < MAX_LEVELS - 1; level++) {
+            double score = level == 0
+                    ? (double)levels.get(0).size() / level0CompactionTrigger
+                    : (double)totalSize(levels.get(level)) / getMaxLevelSize(level);
+            if (score >= 1.0 && score > bestScore) {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        if (bestLevel < 0)
+            return null;
+
+        List<SSTable> inputs = new ArrayList<>();
+        if (bestLevel == 0) {
+            inputs.addAll(levels.get(0));
+        } else {
+            inputs.add(pickTable(bestLevel, levels.get(bestLevel)));
+        }
+
+        final int outputLevel = bestLevel + 1;
+        String startKey = minKeyOf(inputs);
+        String endKey = maxKeyOf(inputs);
+        inputs.addAll(overlapping(levels.get(outputLevel), startKey, endKey));
+
+        startKey = minKeyOf(inputs);
+        endKey = maxKeyOf(inputs);
+        compactPointers[bestLevel] = endKey;
+
+        List<SSTable> olderTables = new ArrayList<>();
+        for (int level = outputLevel + 1; level < MAX_LEVELS; level++) {
+            olderTables.addAll(overlapping(levels.get(level), startKey, endKey));
+        }
+
+        return new CompactionTask(bestLevel, outputLevel, inputs, olderTables);
+    }
+
+    public long getMaxLevelSize(int level) {
+        long size = levelBaseSize;
+        for (int i = 1; i < level; i++) {
+            size *= levelSizeMultiplier;
+        }
+        return size;
+    }
+
+    private SSTable pickTable(int level, List<SSTable> tables) {
+        String pointer = compactPointers[level];
+        if (pointer != null) {
+            for (SSTable table : tables) {
+                if (table.getMinKey() != null && table.getMinKey().compareTo(pointer) > 0)
+                    return table;
+            }
+        }
+        return tables.get(0);
+    }
+
+    private static List<List<SSTable>> groupByLevel(List<SSTable> sstables) {
+        List<List<SSTable>> levels = new ArrayList<>();
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            levels.add(new ArrayList<>());
+        }
+        for (SSTable sstable : sstables) {
+            levels.get(Math.min(sstable.getLevel(), MAX_LEVELS - 1)).add(sstable);
+        }
+        return levels;
+    }
+
+    private static List<SSTable> overlapping(List<SSTable> tables, String startKey, String endKey) {
+        List<SSTable> result = new ArrayList<>();
+        if (startKey == null)
+            return result;
+
+        for (SSTable table : tables) {
+            if (table.overlaps(startKey, endKey))
+                result.add(table);
+        }
+        return result;
+    }
+
+    private static long totalSize(List<SSTable> tables) {
+        long size = 0;
+        for (SSTable table : tables) {
+            size += table.getFileSize();
+        }
+        return size;
+    }
+
+    private static String minKeyOf(List<SSTable> tables) {
+        String minKey = null;
+        for (SSTable table : tables) {
+            if (table.getMinKey() != null && (minKey == null || table.getMinKey().compareTo(minKey) < 0))
+                minKey = table.getMinKey();
+        }
+        return minKey;
+    }
+
+    private static String maxKeyOf(List<SSTable> tables) {
+        String maxKey = null;
+        for (SSTable table : tables) {
+            if (table.getMaxKey() != null && (maxKey == null || table.getMaxKey().compareTo(maxKey) > 0))
+                maxKey = table.getMaxKey();
+        }
+        return maxKey;
+    }
+}
@@ -12,12 +12,21 @@
 
 package org.netium.server.storageengine.lsm;
 
+import org.netium.server.configuration.LsmConfiguration;
 import org.netium.server.configuration.ServerConfiguration;
 import org.netium.server.storageengine.AbstractStorageEngine;
 import org.netium.server.storageengine.command.*;
+import org.netium.server.storageengine.lsm.sstable.BlockCache;
+import org.netium.server.storageengine.lsm.sstable.BlockCompression;
+import org.netium.server.storageengine.lsm.sstable.PrefixExtractor;
+import org.netium.server.storageengine.lsm.sstable.RangeTombstone;
+import org.netium.server.storageengine.lsm.sstable.RangeTombstoneFilter;
+import org.netium.server.storageengine.lsm.sstable.RangeTombstoneSet;
 import org.netium.server.storageengine.lsm.sstable.SSTable;
 import org.netium.server.storageengine.lsm.sstable.SSTableCreator;
+import org.netium.server.storageengine.lsm.sstable.SSTableMergeIterator;
 import org.netium.server.storageengine.lsm.sstable.SSTableSequenceReader;
+import org.netium.server.storageengine.lsm.utils.IoRateLimiter;
 import org.netium.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,15 +35,25 @@ import org.slf4j.MarkerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Stream;
 
 import static org.netium.server.storageengine.lsm.DBFilenameUtil.DBFILE_EXTENSION;
 
@@ -44,13 +63,34 @@ public class LsmStorageEngine extends AbstractStorageEngine {
     private static final int ACQUIRE_LOCK_TIMEOUT = 20;
     private static final TimeUnit ACQUIRE_LOCK_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
-    private static final int MEMTABLE_THRESHOLD = 1 * 1024;
+    // Compaction I/O runs unthrottled once no foreground request has arrived for this long
+    private static final long FOREGROUND_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    private static final int FLUSH_ATTEMPTS = 3;
+    private static final long FLUSH_RETRY_BACKOFF_MILLIS = 1000;
+
+    // Level by level, the overlapping level 0 from the newest to the oldest SSTable and the deeper levels by key range
+    private static final Comparator<SSTable> SSTABLE_SEARCH_ORDER = (sstable1, sstable2) -> {
+        if (sstable1.getLevel() != sstable2.getLevel())
+            return Integer.compare(sstable1.getLevel(), sstable2.getLevel());
+        // The newer L0 tables hold the newer writes, the tables which predate the sequences have none and
+        // fall back to the order of their file names
+        if (sstable1.getLevel() == 0 && sstable1.getMaxSequence() != sstable2.getMaxSequence())
+            return Long.compare(sstable2.getMaxSequence(), sstable1.getMaxSequence());
+        if (sstable1.getLevel() == 0 || sstable1.getMinKey() == null || sstable2.getMinKey() == null)
+            return new DBFileComparor().compare(sstable1.getFile(), sstable2.getFile());
+        return sstable1.getMinKey().compareTo(sstable2.getMinKey());
+    };
 
     private LinkedBlockingQueue<Command> commandQueryQueue = new LinkedBlockingQueue<Command>();
 
     private Thread commandQueryThread = null;
-    private Thread compactAndMergeThread = null;
-    private ExecutorService executorService = Executors.newFixedThreadPool(1);
+    private final BackgroundScheduler backgroundScheduler;
+    private final ExecutorService readExecutorService;
 
     private final ReadWriteLock inMemIndexListLock = new ReentrantReadWriteLock();
     private final Lock inMemIndexListUpdateLock = inMemIndexListLock.writeLock();
@@ -61,14 +101,44 @@ public class LsmStorageEngine extends AbstractStorageEngine {
     private String dbFileFolder;
 
     private AtomicReference<Memtable> currentMemtableARef;
-    private AtomicReference<Memtable> flushingMemtableARef = new AtomicReference<>();
+    private CopyOnWriteArrayList<Memtable> immutableMemtables = new CopyOnWriteArrayList<>();
+    private final Object flushProgressMonitor = new Object();
+    private CompletableFuture<Void> lastFlushInstallation = CompletableFuture.completedFuture(null);
 
     private WriteAheadLog writeAheadLog = null;
+    // Set once the WAL can no longer be trusted or a memtable cannot be flushed, every later write fails with it
+    private volatile Throwable fatalWriteError = null;
+
+    private final BlockCache blockCache;
+
+    private final CompactionStrategy compactionStrategy;
+    private final ForkJoinPool compactionPool;
+    private final IoRateLimiter compactionRateLimiter;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean compactionPending = new AtomicBoolean(false);
+
+    private volatile long lastForegroundNanos = System.nanoTime();
+    private volatile boolean closing = false;
 
     public LsmStorageEngine(ServerConfiguration serverConfiguration) {
         super(serverConfiguration);
+        serverConfiguration.getLsm().validate();
+        long blockCacheSize = serverConfiguration.getLsm().getBlockCacheSize();
+        blockCache = blockCacheSize > 0 ? new BlockCache(blockCacheSize) : null;
+        readExecutorService = Executors.newFixedThreadPool(serverConfiguration.getLsm().getReadThreadPoolSize());
+        // One more thread than the flushes need, so the single running compaction never holds up a flush
+        backgroundScheduler = new BackgroundScheduler(serverConfiguration.getLsm().getFlushThreadPoolSize() + 1);
+        compactionStrategy = LsmConfiguration.COMPACTION_STRATEGY_SIZE_TIERED.equals(serverConfiguration.getLsm().getCompactionStrategy())
+                ? new SizeTieredCompactionStrategy(serverConfiguration.getLsm())
+                : new LeveledCompactionStrategy(serverConfiguration.getLsm());
+        compactionPool = new ForkJoinPool(serverConfiguration.getLsm().getCompactionThreadPoolSize());
+        long compactionRateLimit = serverConfiguration.getLsm().getCompactionRateLimit();
+        compactionRateLimiter = compactionRateLimit > 0
+                ? new IoRateLimiter(compactionRateLimit, () -> System.nanoTime() - lastForegroundNanos > FOREGROUND_IDLE_NANOS)
+                : null;
+
         currentMemtableARef = new AtomicReference<>();
-        currentMemtableARef.set(new Memtable());
+        currentMemtableARef.set(newMemtable(0));
 
         File dbFolder = new File(serverConfiguration.getDbPath());
         if (!dbFolder.exists()) {
@@ -86,8 +156,15 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         try {
             buildSegmentInMemIndexList(new File(this.dbFileFolder));
 
-            compactAndMergeThread = new Thread(new SSTableCompactor());
-            compactAndMergeThread.start();
+            // The replayed and new writes continue the sequence of the persisted ones
+            long lastSequence = 0;
+            for (SSTable sstable : sstables) {
+                lastSequence = Math.max(lastSequence, sstable.getMaxSequence());
+            }
+            // The placeholder of the constructor holds no writes, but an off-heap one holds an arena
+            currentMemtableARef.getAndSet(newMemtable(lastSequence)).close();
+
+            scheduleCompaction();
 
             initWriteAheadLog();
 
@@ -102,6 +179,7 @@ public class LsmStorageEngine extends AbstractStorageEngine {
 
     @Override
     public void put(String key, String value, ResultHandler resultHandler) {
+        lastForegroundNanos = System.nanoTime();
         PutCommand command = new PutCommand(key, value, resultHandler);
         if (!commandQueryQueue.offer(command)) {
             resultHandler.handle(
@@ -112,16 +190,57 @@ public class LsmStorageEngine extends AbstractStorageEngine {
 
     @Override
     public void read(String key, ResultHandler resultHandler) {
+        lastForegroundNanos = System.nanoTime();
         GetCommand command = new GetCommand(key, resultHandler);
-        if (!commandQueryQueue.offer(command)) {
+        try {
+            readExecutorService.execute(() -> processQueryCommand(command));
+        } catch (RejectedExecutionException e) {
+            resultHandler.handle(
+                    new CommandResult(ResultStatus.OVERLOAD, null, null)
+            );
+        }
+    }
+
+    @Override
+    public void multiGet(List<String> keys, ResultHandler resultHandler) {
+        lastForegroundNanos = System.nanoTime();
+        MultiGetCommand command = new MultiGetCommand(keys, resultHandler);
+        try {
+            readExecutorService.execute(() -> processMultiGetCommand(command));
+        } catch (RejectedExecutionException e) {
+            resultHandler.handle(
+                    new CommandResult(ResultStatus.OVERLOAD, null, null)
+            );
+        }
+    }
+
+    @Override
+    public void scan(String startKey, String endKey, int limit, ResultHandler resultHandler) {
+        lastForegroundNanos = System.nanoTime();
+        ScanCommand command = new ScanCommand(startKey, endKey, limit, resultHandler);
+        try {
+            readExecutorService.execute(() -> processScanCommand(command));
+        } catch (RejectedExecutionException e) {
             resultHandler.handle(
                     new CommandResult(ResultStatus.OVERLOAD, null, null)
             );
         }
     }
 
+    @Override
+    public void prefix(String prefix, int limit, ResultHandler resultHandler) {
+        if (prefix == null || prefix.length() == 0) {
+            resultHandler.handle(
+                    new CommandResult(ResultStatus.ERROR, null, new IllegalArgumentException("The prefix is null or empty"))
+            );
+            return;
+        }
+        scan(prefix, PrefixExtractor.prefixEndKey(prefix), limit, resultHandler);
+    }
+
     @Override
     public void delete(String key, ResultHandler resultHandler) {
+        lastForegroundNanos = System.nanoTime();
         DeleteCommand command = new DeleteCommand(key, resultHandler);
         if (!commandQueryQueue.offer(command)) {
             resultHandler.handle(
@@ -130,8 +249,20 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         }
     }
 
+    @Override
+    public void deleteRange(String startKey, String endKey, ResultHandler resultHandler) {
+        lastForegroundNanos = System.nanoTime();
+        DeleteRangeCommand command = new DeleteRangeCommand(startKey, endKey, resultHandler);
+        if (!commandQueryQueue.offer(command)) {
+            resultHandler.handle(
+                    new CommandResult(ResultStatus.OVERLOAD, null, null)
+            );
+        }
+    }
+
     @Override
     public void compareAndSet(String key, String oldValue, String newValue, ResultHandler resultHandler) {
+        lastForegroundNanos = System.nanoTime();
         CompareAndSetCommand command = new CompareAndSetCommand(key, oldValue, newValue, resultHandler);
         if (!commandQueryQueue.offer(command)) {
             resultHandler.handle(
@@ -160,80 +291,151 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         }
     }
 
+    /**
+     * Stops taking commands, flushes the current memtable and waits for the flushes to be installed, then
+     * stops the background, read and compaction pools, interrupting them if they do not stop in time. The
+     * commands still queued fail with an error.
+     */
     @Override
     public void close() throws IOException {
-        createSSTable();
-    }
+        closing = true;
+        try {
+            if (commandQueryThread != null) {
+                commandQueryThread.interrupt();
+                commandQueryThread.join();
+            }
+            Command command;
+            while ((command = commandQueryQueue.poll()) != null) {
+                command.getResultHandler().handle(
+                        new CommandResult(ResultStatus.ERROR, null, new LsmStorageEngineException("The engine is closed"))
+                );
+            }
 
-    private void createSSTable() {
-        Memtable currentMemtable = currentMemtableARef.get();
-        if (currentMemtable.size() == 0)
-            return;
+            if (fatalWriteError == null)
+                createSSTable();
+            try {
+                lastFlushInstallation.get();
+            } catch (ExecutionException e) {
+                // The WAL still holds the writes of the memtables which are not flushed
+                logger.error("Failed to flush the memtables on close: {}", e.getCause().toString());
+            }
 
-        while (!this.flushingMemtableARef.compareAndSet(null, currentMemtable)) ;
+            backgroundScheduler.shutdown();
+            readExecutorService.shutdown();
+            compactionPool.shutdown();
+            boolean terminated = awaitPoolsTermination();
+            if (!terminated) {
+                logger.warn("The engine pools did not terminate within {} seconds, interrupting them", CLOSE_TIMEOUT_SECONDS);
+                backgroundScheduler.shutdownNow();
+                readExecutorService.shutdownNow();
+                compactionPool.shutdownNow();
+                terminated = awaitPoolsTermination();
+            }
 
-        this.currentMemtableARef.set(new Memtable());
+            // The command thread has stopped and the flushes are installed, nothing touches the WAL any more
+            if (writeAheadLog != null)
+                writeAheadLog.close();
 
-        final Path dbPath = generateSSTablePath();
-
-        executorService.submit(() -> flushMemTable(dbPath));
+            if (!terminated) {
+                // Unmapping an SSTable which a task still reads would crash the JVM
+                logger.error("The engine pools did not stop, the sstables and memtables are left to the GC");
+                return;
+            }
+            closeSSTables(sstables);
+            // The writes of the memtables which are not flushed are still in the WAL
+            currentMemtableARef.get().close();
+            for (Memtable immutableMemtable : immutableMemtables) {
+                immutableMemtable.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the memtables to be flushed");
+        }
     }
 
-    private Path generateSSTablePath() {
-        return Paths.get(dbFileFolder, DBFilenameUtil.generateNewSSTableDBName());
+    private boolean awaitPoolsTermination() throws InterruptedException {
+        return backgroundScheduler.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                & readExecutorService.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                & compactionPool.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
     }
 
-    private void removeSSTables(ArrayList<SSTable> oldIndexList) throws Exception {
-        for (SSTable index : oldIndexList) {
-            index.close();
-            logger.info("Delete sstable: {}" , index.getFile());
-            index.getFile().delete();
-        }
-    }
+    private void createSSTable() throws InterruptedException {
+        Memtable currentMemtable = currentMemtableARef.get();
+        if (currentMemtable.isEmpty())
+            return;
+        if (fatalWriteError != null)
+            throw new LsmStorageEngineException("The memtables can no longer be flushed", fatalWriteError);
 
-    private void mergeSSTables(ArrayList<SSTableSequenceReader> readers, SSTableCreator ssTableWriter) throws IOException {
-        for (int i = readers.size() - 1; i >= 0; i--) {
-            if (readers.get(i).isEof())
-                readers.remove(i);
-        }
+        waitForImmutableMemtablesBelow(getServerConfiguration().getLsm().getMemtableStopTrigger());
 
-        while (readers.size() != 0) {
-            String minKey = readers.get(0).peekNextKey();
+        immutableMemtables.add(0, currentMemtable);
+        this.currentMemtableARef.set(newMemtable(currentMemtable.getSequence()));
 
-            for (int i = 1; i < readers.size(); i++) {
-                if (readers.get(i).peekNextKey().compareTo(minKey) < 0)
-                    minKey = readers.get(i).peekNextKey();
-            }
-            logger.debug("minKey: " + minKey);
+        final long walSegmentBoundary = writeAheadLog.startNewSegment();
+        final Path dbPath = generateSSTablePath();
 
-            boolean minKeyWritten = false;
-            for (int i = 0; i < readers.size(); i++) {
-                if (readers.get(i).peekNextKey().compareTo(minKey) == 0) {
-                    if (!minKeyWritten) {
-                        Pair<String, String> pair = readers.get(i).read();
-                        if (pair.getValue() != null) {
-                            logger.debug("Write <{}, {}>", pair.getKey(), pair.getValue());
-                            ssTableWriter.write(pair);
-                        }
-                        minKeyWritten = true;
-                    } else {
-                        readers.get(i).read();
-                    }
+        // Memtables are written in parallel, but each SSTable is installed only after the older ones so that
+        // the SSTable list stays in recency order and the WAL segments are retired in order.
+        // A memtable which cannot be installed blocks the newer ones for good, installing them out of order would
+        // let the older memtable shadow their writes. The engine then rejects the writes instead of stalling them.
+        CompletableFuture<SSTable> flushedSSTable = backgroundScheduler.submit(BackgroundScheduler.Priority.FLUSH,
+                () -> flushMemTableWithRetry(currentMemtable, dbPath));
+        lastFlushInstallation = flushedSSTable.thenAcceptBoth(lastFlushInstallation,
+                (ssTable, previous) -> installFlushedSSTable(currentMemtable, ssTable, walSegmentBoundary));
+        lastFlushInstallation.whenComplete((result, e) -> {
+            if (e != null && fatalWriteError == null) {
+                logger.error("Failed to flush the memtable to {}, rejecting all further writes: {}", dbPath, e.toString());
+                fatalWriteError = e;
+                synchronized (flushProgressMonitor) {
+                    flushProgressMonitor.notifyAll();
                 }
             }
+        });
+    }
 
-            for (int i = readers.size() - 1; i >= 0; i--) {
-                if (readers.get(i).isEof())
-                    readers.remove(i);
+    private void waitForImmutableMemtablesBelow(int limit) throws InterruptedException {
+        synchronized (flushProgressMonitor) {
+            while (immutableMemtables.size() >= limit) {
+                if (fatalWriteError != null)
+                    throw new LsmStorageEngineException("The memtables can no longer be flushed", fatalWriteError);
+                logger.warn("Writes are stalled, {} memtables are waiting to be flushed", immutableMemtables.size());
+                flushProgressMonitor.wait(ACQUIRE_LOCK_TIMEOUT_UNIT.toMillis(ACQUIRE_LOCK_TIMEOUT));
             }
         }
     }
 
+    private void slowdownWritesIfNeeded() throws InterruptedException {
+        LsmConfiguration lsmConfiguration = getServerConfiguration().getLsm();
+        if (immutableMemtables.size() >= lsmConfiguration.getMemtableSlowdownTrigger())
+            TimeUnit.MICROSECONDS.sleep(lsmConfiguration.getWriteSlowdownMicros());
+    }
+
+    private Memtable newMemtable(long baseSequence) {
+        if (LsmConfiguration.MEMTABLE_TYPE_OFFHEAP.equals(getServerConfiguration().getLsm().getMemtableType()))
+            return new OffHeapMemtable(OffHeapMemtable.DEFAULT_CHUNK_SIZE, baseSequence);
+        return new SkipListMemtable(baseSequence);
+    }
+
+    private Path generateSSTablePath() {
+        return Paths.get(dbFileFolder, DBFilenameUtil.generateNewSSTableDBName());
+    }
+
     private void buildSegmentInMemIndexList(File folder) throws IOException {
+        // A flush or a compaction which crashed leaves its output under the temporary name
+        File[] temporaryFiles = folder.listFiles(pathname -> pathname.isFile() && pathname.getName().endsWith(DBFILE_EXTENSION + ".tmp"));
+        for (File temporaryFile : temporaryFiles) {
+            logger.info("Delete the unfinished sstable: {}", temporaryFile);
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
+
         File[] dbFiles = readSegmentFileInDesOrder(folder);
+        ArrayList<SSTable> loadedSSTables = new ArrayList<>();
         for (File dbFile : dbFiles) {
-            sstables.add(new SSTable(dbFile));
+            loadedSSTables.add(new SSTable(dbFile, blockCache));
+            DBFilenameUtil.advanceFileNumber(dbFile.getName());
         }
+        loadedSSTables.sort(SSTABLE_SEARCH_ORDER);
+        sstables.addAll(loadedSSTables);
     }
 
     private File[] readSegmentFileInDesOrder(File folder) {
@@ -245,7 +447,7 @@ public class LsmStorageEngine extends AbstractStorageEngine {
     }
 
     private void initWriteAheadLog() {
-        writeAheadLog = new WriteAheadLog("./wal");
+        writeAheadLog = new WriteAheadLog("./wal", getServerConfiguration().getLsm().getWalSegmentSize());
     }
 
     private void replayWriteAheadLog() {
@@ -253,125 +455,218 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         writeAheadLog.prepareForReplay();
         Memtable currentMemtable = currentMemtableARef.get();
         while (!writeAheadLog.isEof()) {
-            Pair<String, String> pair = writeAheadLog.replayNextItem();
-            logger.debug("Replay item: {}, {}", pair.getKey(), pair.getValue());
-            currentMemtable.put(pair.getKey(), pair.getValue());
+            WriteAheadLogRecord record = writeAheadLog.replayNextRecord();
+            logger.debug("Replay item: {} {}, {}", record.getType(), record.getKey(), record.getValue());
+            switch (record.getType()) {
+                case PUT:
+                    currentMemtable.put(record.getKey(), record.getValue());
+                    break;
+                case DELETE:
+                    currentMemtable.delete(record.getKey());
+                    break;
+                case DELETE_RANGE:
+                    currentMemtable.deleteRange(record.getKey(), record.getValue());
+                    break;
+            }
         }
         logger.debug("Replay WAL done");
     }
 
-    private void flushMemTable(final Path sstableFilePath) {
-        Marker marker = MarkerFactory.getMarker("FLUSHMEMTABLE");
-
+    private SSTable flushMemTable(final Memtable flushingMemtable, final Path sstableFilePath) {
+        // The SSTable is written under a temporary name, so a failed or interrupted flush never leaves a
+        // partial SSTable for the next start to load
+        File sstableFile = sstableFilePath.toFile();
+        File temporaryFile = new File(sstableFile.getPath() + ".tmp");
         try {
             logger.info("Star to flushing memtable to " + sstableFilePath.toString());
-            Memtable flushingMemtable = flushingMemtableARef.get();
-            try (SSTableCreator ssTableCreator = new SSTableCreator(sstableFilePath.toFile(), flushingMemtable.size())) {
+            try (SSTableCreator ssTableCreator = new SSTableCreator(temporaryFile, flushingMemtable.size(),
+                    getServerConfiguration().getLsm().getSstableBlockSize())) {
+                ssTableCreator.setCompression(BlockCompression.fromName(getServerConfiguration().getLsm().getSstableCompression()));
+                ssTableCreator.setRestartInterval(getServerConfiguration().getLsm().getSstableRestartInterval());
+                ssTableCreator.setSequenceRange(flushingMemtable.getBaseSequence() + 1, flushingMemtable.getSequence());
+                ssTableCreator.setBloomFilterFalsePositiveRate(getServerConfiguration().getLsm().getBloomFilterFalsePositiveRate(0));
+                ssTableCreator.setPrefixExtractor(PrefixExtractor.fromName(getServerConfiguration().getLsm().getPrefixExtractor()));
+                List<RangeTombstone> rangeTombstones = flushingMemtable.getRangeTombstones();
+                RangeTombstoneSet rangeTombstoneSet = RangeTombstoneSet.of(rangeTombstones);
                 for (Pair<String, String> entry : flushingMemtable) {
+                    // A deleted key under a range tombstone of the same SSTable needs no tombstone of its own
+                    if (entry.getValue() == null && rangeTombstoneSet.covers(entry.getKey()))
+                        continue;
                     ssTableCreator.write(entry);
                 }
+                for (RangeTombstone rangeTombstone : rangeTombstones) {
+                    ssTableCreator.addRangeTombstone(rangeTombstone);
+                }
             }
-            final SSTable ssTable = new SSTable(sstableFilePath.toFile());
+            if (!temporaryFile.renameTo(sstableFile))
+                throw new IOException("Failed to rename the flushed memtable to " + sstableFile);
+            logger.info("Finish flushing memtable to " + sstableFilePath.toString());
+            return new SSTable(sstableFile, blockCache);
+        } catch (IOException e) {
+            deleteFlushOutput(temporaryFile, sstableFile);
+            throw new LsmStorageEngineException(e);
+        } catch (RuntimeException e) {
+            deleteFlushOutput(temporaryFile, sstableFile);
+            throw e;
+        }
+    }
 
-            writeAheadLog = writeAheadLog.createNewLogFile();
+    private void deleteFlushOutput(File temporaryFile, File sstableFile) {
+        try {
+            Files.deleteIfExists(temporaryFile.toPath());
+            Files.deleteIfExists(sstableFile.toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete the output of the failed flush to {}: {}", sstableFile, e.toString());
+        }
+    }
 
-            runTimeoutCheckedCriticalSection(inMemIndexListUpdateLock,
-                    () -> sstables.add(0, ssTable));
+    private SSTable flushMemTableWithRetry(final Memtable flushingMemtable, final Path sstableFilePath) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return flushMemTable(flushingMemtable, sstableFilePath);
+            } catch (RuntimeException e) {
+                if (attempt >= FLUSH_ATTEMPTS)
+                    throw e;
+                logger.warn("Flushing the memtable to {} failed at attempt {}, retrying: {}", sstableFilePath, attempt, e.toString());
+            }
 
-            if (!flushingMemtableARef.compareAndSet(flushingMemtable, null)) {
-                final String errorString = "The flushing table is changed during the flushing, critical error occur!";
-                logger.error(errorString);
-                throw new LsmStorageEngineException(errorString);
+            try {
+                Thread.sleep(FLUSH_RETRY_BACKOFF_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LsmStorageEngineException("Interrupted while retrying the flush to " + sstableFilePath, e);
             }
-        } catch (IOException e) {
-            throw new LsmStorageEngineException(e);
-        } catch (InterruptedException e) {
-            logger.warn(marker, "The lock acquiring is interrupted");
         }
-        logger.info("Finish flushing memtable to " + sstableFilePath.toString());
     }
 
-    private void compactAndMerge() throws Exception {
-        if (!isMergeAndCompactNeed()) {
-            logger.info("The merge-n-compact criteria is not reached, skip");
-            return;
-        }
+    private void installFlushedSSTable(final Memtable flushedMemtable, final SSTable ssTable, final long walSegmentBoundary) {
+        Marker marker = MarkerFactory.getMarker("FLUSHMEMTABLE");
 
-        logger.info("Start to do the merge-n-compact");
-        Path dbPath = createNewDBMergedFile();
-        Path dbTempPath = Paths.get(dbPath.toString() + ".tmp");
+        try {
+            runCriticalSection(inMemIndexListUpdateLock, () -> {
+                sstables.add(0, ssTable);
+                if (!immutableMemtables.remove(flushedMemtable)) {
+                    final String errorString = "The flushed memtable is not in the immutable memtable list, critical error occur!";
+                    logger.error(errorString);
+                    throw new LsmStorageEngineException(errorString);
+                }
+            });
 
-        ArrayList<SSTableSequenceReader> readers = new ArrayList<>();
+            // Lookups hold the read lock while they use a memtable, so nobody can still see the flushed one
+            flushedMemtable.close();
 
-        ArrayList<SSTable> sstableListSnapshot = null;
+            writeAheadLog.retireSegmentsBefore(walSegmentBoundary);
 
-        long totalItems = 0;
-        while (!inMemIndexListReadLock.tryLock(ACQUIRE_LOCK_TIMEOUT, ACQUIRE_LOCK_TIMEOUT_UNIT))
-            logger.warn("failed to acquire read lock in 10sec");
+            synchronized (flushProgressMonitor) {
+                flushProgressMonitor.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            logger.warn(marker, "The lock acquiring is interrupted");
+            Thread.currentThread().interrupt();
+            throw new LsmStorageEngineException("Interrupted while installing the flushed SSTable " + ssTable.getFile(), e);
+        }
+        logger.info("Installed the flushed SSTable " + ssTable.getFile().toString());
 
-        try {
-            sstableListSnapshot = new ArrayList<>(sstables);
-            for (SSTable sstable : sstables) {
-                readers.add(new SSTableSequenceReader(sstable.iterator()));
-                totalItems += sstable.getNumOfItems();
+        scheduleCompaction();
+    }
+
+    /**
+     * Requests a round of compactions. At most one round runs at a time, a request arriving while a round
+     * runs is picked up by that round.
+     */
+    private void scheduleCompaction() {
+        compactionPending.set(true);
+        if (compactionScheduled.compareAndSet(false, true)) {
+            try {
+                backgroundScheduler.submit(BackgroundScheduler.Priority.COMPACTION, this::runCompactions);
+            } catch (RejectedExecutionException e) {
+                // The engine is closing
+                compactionScheduled.set(false);
             }
-        } finally {
-            inMemIndexListReadLock.unlock();
         }
-        SSTableCreator creator = new SSTableCreator(dbTempPath.toFile(), (int)totalItems);
+    }
 
+    private Void runCompactions() {
+        Marker marker = MarkerFactory.getMarker("MERGE-N-COMPACT");
         try {
-            mergeSSTables(readers, creator);
-        }
-        finally {
-            creator.close();
+            while (!closing && compactionPending.getAndSet(false)) {
+                while (!closing && compactOnce()) {
+                    // Keep going while the strategy finds work, each compaction may make the next level too big
+                }
+            }
+        } catch (Exception e) {
+            logger.error(marker, "Compact and merge met exception: {}", e.toString(), e);
+        } finally {
+            compactionScheduled.set(false);
         }
 
-        dbTempPath.toFile().renameTo(dbPath.toFile());
+        if (!closing && compactionPending.get())
+            scheduleCompaction();
+        return null;
+    }
 
-        SSTable ssTable = new SSTable(dbPath.toFile());
+    private boolean compactOnce() throws Exception {
+        CompactionTask task = compactionStrategy.pickCompaction(new ArrayList<>(sstables));
+        if (task == null) {
+            logger.debug("Nothing needs to be compacted, skip");
+            return false;
+        }
 
-        while (!inMemIndexListUpdateLock.tryLock(10, TimeUnit.SECONDS))
-            logger.warn("failed to acquire write lock in 10sec");
+        SSTableCompactor compactor = new SSTableCompactor(new File(dbFileFolder),
+                getServerConfiguration().getLsm().getSstableBlockSize(),
+                getServerConfiguration().getLsm().getSstableTargetSize(),
+                blockCache, compactionPool, compactionRateLimiter);
+        compactor.setCompression(BlockCompression.fromName(getServerConfiguration().getLsm().getSstableCompression()));
+        compactor.setRestartInterval(getServerConfiguration().getLsm().getSstableRestartInterval());
+        compactor.setBloomFilterFalsePositiveRate(getServerConfiguration().getLsm().getBloomFilterFalsePositiveRate(task.getOutputLevel()));
+        compactor.setPrefixExtractor(PrefixExtractor.fromName(getServerConfiguration().getLsm().getPrefixExtractor()));
+        List<SSTable> outputs = compactor.compact(task);
 
         try {
-            ArrayList<SSTable> oldIndexList = sstableListSnapshot;
-            removeSSTables(oldIndexList);
-
-            for (SSTable inMemIndex : sstableListSnapshot) {
-                sstables.remove(inMemIndex);
+            runCriticalSection(inMemIndexListUpdateLock, () -> {
+                sstables.removeAll(task.getInputs());
+                sstables.addAll(outputs);
+                sstables.sort(SSTABLE_SEARCH_ORDER);
+                // Lookups and scans hold the read lock while they use an SSTable, so unmapping the replaced
+                // ones under the write lock cannot pull the data from under a reader
+                closeSSTables(task.getInputs());
+            });
+        } catch (InterruptedException | RuntimeException e) {
+            // The outputs overlap their inputs, left on disk they would be loaded next to them on restart
+            if (Collections.disjoint(sstables, outputs)) {
+                closeSSTables(outputs);
+                deleteSSTables(outputs);
             }
-            sstables.add(ssTable);
-        } finally {
-            inMemIndexListUpdateLock.unlock();
+            throw e;
         }
 
-        logger.info("Finish the merge-n-compact");
+        deleteSSTables(task.getInputs());
+        return true;
     }
 
-    private Path createNewDBMergedFile() {
-        Stream<String> filenames = sstables.stream().map(p -> p.getFile().getAbsolutePath());
-        Stream<File> files = filenames.map(p -> new File(p));
-        String newMergedDBName = DBFilenameUtil.generateNewMergedDBName(files);
-        return Paths.get(dbFileFolder, newMergedDBName);
+    private void closeSSTables(List<SSTable> oldSSTables) {
+        for (SSTable sstable : oldSSTables) {
+            try {
+                sstable.close();
+            } catch (Exception e) {
+                logger.warn("Failed to close the sstable {}: {}", sstable.getFile(), e.toString());
+            }
+        }
     }
 
-    private boolean isMergeAndCompactNeed() throws InterruptedException {
-        while (!inMemIndexListReadLock.tryLock(10, TimeUnit.SECONDS))
-            logger.warn("failed to acquire read lock in 10sec for merging/compacting criteria checking");
-
-        try {
-            logger.debug("Current SSTable files: " + sstables.size());
-            return sstables.size() >= 3;
-        } finally {
-            inMemIndexListReadLock.unlock();
+    private void deleteSSTables(List<SSTable> oldSSTables) {
+        for (SSTable sstable : oldSSTables) {
+            logger.info("Delete sstable: {}" , sstable.getFile());
+            sstable.getFile().delete();
         }
     }
 
-    private void runTimeoutCheckedCriticalSection(Lock lock, Runnable criticalSection) throws InterruptedException {
-        if (!lock.tryLock(ACQUIRE_LOCK_TIMEOUT, ACQUIRE_LOCK_TIMEOUT_UNIT))
-            throw new AcquireLockTimeoutException("Failed to acquire lock " + lock.toString() + " in thread: " + Thread.currentThread().getName());
-
+    /**
+     * Runs the critical section however long the lock takes to acquire. An SSTable which is already written
+     * is installed with it, giving up on a slow reader would cost far more than waiting for it.
+     */
+    private void runCriticalSection(Lock lock, Runnable criticalSection) throws InterruptedException {
+        lock.lockInterruptibly();
         try {
             criticalSection.run();
         } finally {
@@ -384,52 +679,154 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         while (true) {
             try {
                 Command command = commandQueryQueue.take();
-                if (command instanceof GetCommand) {
-                    processQueryCommand((GetCommand) command);
-                } else if (command instanceof DeleteCommand) {
-                    processDeleteCommand((DeleteCommand) command);
-                } else if (command instanceof PutCommand) {
-                    processPutCommand((PutCommand) command);
-                } else if (command instanceof CompareAndSetCommand) {
-                    processCompareAndSetCommand((CompareAndSetCommand) command);
-                } else if (command instanceof FlushCommand) {
-                    processFlushCommand((FlushCommand) command);
-                } else if (command instanceof GetEngineInfoCommand) {
-                    processGetEngineInfoCommand((GetEngineInfoCommand) command);
+                if (isWriteCommand(command)) {
+                    processWriteCommands(command);
+                } else {
+                    processCommand(command);
                 }
             } catch (InterruptedException e) {
                 break;
+            } catch (RuntimeException e) {
+                logger.error("Failed to process a command: {}", e.toString(), e);
             }
         }
     }
 
-    private void processQueryCommand(final GetCommand command) {
-        String key = command.getKey();
+    private void processCommand(Command command) {
+        if (command instanceof CompareAndSetCommand) {
+            processCompareAndSetCommand((CompareAndSetCommand) command);
+        } else if (command instanceof FlushCommand) {
+            processFlushCommand((FlushCommand) command);
+        } else if (command instanceof GetEngineInfoCommand) {
+            processGetEngineInfoCommand((GetEngineInfoCommand) command);
+        }
+    }
+
+    private boolean isWriteCommand(Command command) {
+        return command instanceof PutCommand || command instanceof DeleteCommand || command instanceof DeleteRangeCommand;
+    }
+
+    private void processWriteCommands(Command firstCommand) throws InterruptedException {
         try {
-            Memtable currentMemtable = this.currentMemtableARef.get();
-            Memtable flushingMemtable = this.flushingMemtableARef.get();
+            slowdownWritesIfNeeded();
+        } catch (InterruptedException e) {
+            // The engine is closing, the command is still processed
+            Thread.currentThread().interrupt();
+        }
 
-            if (currentMemtable.containsKey(key)) {
-                command.getResultHandler().handle(
-                        new CommandResult(ResultStatus.OK, currentMemtable.get(key), null)
-                );
-            } else if (flushingMemtable != null && flushingMemtable.containsKey(key)) {
-                command.getResultHandler().handle(
-                        new CommandResult(ResultStatus.OK, flushingMemtable.get(key), null)
-                );
-            } else {
-                for (SSTable sstable : sstables) {
-                    Pair<String, String> keyValuePair = sstable.get(key);
-                    if (keyValuePair != null) {
-                        command.getResultHandler().handle(
-                                new CommandResult(keyValuePair != null ? ResultStatus.OK : ResultStatus.FAILED, keyValuePair.getValue(), null)
-                        );
-                        return;
-                    }
-                }
+        final int batchSize = getServerConfiguration().getLsm().getWalGroupCommitBatchSize();
+        final long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(getServerConfiguration().getLsm().getWalGroupCommitMaxWaitMillis());
+
+        ArrayList<Pair<Command, CommandResult>> batch = new ArrayList<>();
+        if (fatalWriteError == null) {
+            try {
+                writeAheadLog.markBatchStart();
+            } catch (Throwable e) {
+                // The appends report their own errors, a batch without a mark cannot be rolled back
+                logger.error("Failed to mark the write ahead log batch: {}", e.toString());
             }
-            command.getResultHandler().handle(
-                    new CommandResult(ResultStatus.FAILED, null, null)
+        }
+        batch.add(new Pair<>(firstCommand, logWriteCommand(firstCommand)));
+
+        Command nextCommand = null;
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.nanoTime();
+            try {
+                nextCommand = remaining > 0
+                        ? commandQueryQueue.poll(remaining, TimeUnit.NANOSECONDS)
+                        : commandQueryQueue.poll();
+            } catch (InterruptedException e) {
+                // The engine is closing, commit what has been logged and let the command loop stop
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (nextCommand == null || !isWriteCommand(nextCommand))
+                break;
+
+            batch.add(new Pair<>(nextCommand, logWriteCommand(nextCommand)));
+            nextCommand = null;
+        }
+
+        try {
+            commitWriteCommands(batch);
+        } finally {
+            if (nextCommand != null) {
+                processCommand(nextCommand);
+            }
+        }
+    }
+
+    /**
+     * Appends the write to the WAL. The memtable is only updated once the batch is synced, so that the reads,
+     * which do not go through the command queue, never see a write which is not durable yet.
+     */
+    private CommandResult logWriteCommand(Command command) {
+        if (fatalWriteError != null) {
+            return new CommandResult(ResultStatus.ERROR, null, fatalWriteError);
+        }
+        if (command instanceof PutCommand) {
+            return processPutCommand((PutCommand) command);
+        } else if (command instanceof DeleteRangeCommand) {
+            return processDeleteRangeCommand((DeleteRangeCommand) command);
+        } else {
+            return processDeleteCommand((DeleteCommand) command);
+        }
+    }
+
+    private void applyWriteCommand(Command command) {
+        Memtable currentMemtable = currentMemtableARef.get();
+        if (command instanceof PutCommand) {
+            currentMemtable.put(((PutCommand) command).getKey(), ((PutCommand) command).getValue());
+        } else if (command instanceof DeleteRangeCommand) {
+            currentMemtable.deleteRange(((DeleteRangeCommand) command).getKey(), ((DeleteRangeCommand) command).getEndKey());
+        } else {
+            currentMemtable.delete(((DeleteCommand) command).getKey());
+        }
+    }
+
+    private void commitWriteCommands(ArrayList<Pair<Command, CommandResult>> batch) throws InterruptedException {
+        Throwable syncError = null;
+        try {
+            writeAheadLog.sync();
+        } catch (Throwable e) {
+            logger.error("Failed to sync the write ahead log for {} commands: {}", batch.size(), e.toString());
+            syncError = e;
+            // The failed writes are reported as failed, so they must not come back when the WAL is replayed
+            try {
+                writeAheadLog.rollbackBatch();
+            } catch (Throwable rollbackError) {
+                logger.error("Failed to roll back the write ahead log, rejecting all further writes: {}", rollbackError.toString());
+                fatalWriteError = rollbackError;
+            }
+        }
+
+        if (syncError == null) {
+            for (Pair<Command, CommandResult> item : batch) {
+                if (item.getValue().getStatus() == ResultStatus.OK)
+                    applyWriteCommand(item.getKey());
+            }
+        }
+
+        for (Pair<Command, CommandResult> item : batch) {
+            CommandResult result = item.getValue();
+            if (syncError != null && result.getStatus() == ResultStatus.OK) {
+                result = new CommandResult(ResultStatus.ERROR, null, syncError);
+            }
+            item.getKey().getResultHandler().handle(result);
+        }
+
+        if (syncError == null && fatalWriteError == null && currentMemtableARef.get().getRawDataSize() >= getServerConfiguration().getLsm().getMemtableSize()) {
+            createSSTable();
+        }
+    }
+
+    private void processQueryCommand(final GetCommand command) {
+        try {
+            Pair<String, String> keyValuePair = lookup(command.getKey());
+            command.getResultHandler().handle(keyValuePair != null
+                    ? new CommandResult(ResultStatus.OK, keyValuePair.getValue(), null)
+                    : new CommandResult(ResultStatus.FAILED, null, null)
             );
         } catch (Throwable e) {
             logger.error(e.toString());
@@ -440,18 +837,141 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         }
     }
 
-    private void processDeleteCommand(final DeleteCommand command) {
-        final String key = command.getKey();
+    private Pair<String, String> lookup(final String key) throws IOException, InterruptedException {
+        if (!inMemIndexListReadLock.tryLock(ACQUIRE_LOCK_TIMEOUT, ACQUIRE_LOCK_TIMEOUT_UNIT))
+            throw new AcquireLockTimeoutException("Failed to acquire lock " + inMemIndexListReadLock.toString() + " in thread: " + Thread.currentThread().getName());
+
         try {
-            Memtable currentMemtable = currentMemtableARef.get();
-            writeAheadLog.appendItem(key, null);
-            currentMemtable.delete(key);
-            if (currentMemtable.getRawDataSize() >= MEMTABLE_THRESHOLD) {
-                createSSTable();
+            // The current memtable must be read before the immutable ones: a memtable is published as immutable
+            // before it is replaced, and its sstable is installed before it leaves the immutable list.
+            Pair<String, String> keyValuePair = currentMemtableARef.get().find(key);
+            if (keyValuePair != null)
+                return keyValuePair;
+
+            for (Memtable immutableMemtable : immutableMemtables) {
+                keyValuePair = immutableMemtable.find(key);
+                if (keyValuePair != null)
+                    return keyValuePair;
             }
+
+            for (SSTable sstable : sstables) {
+                if (!sstable.overlaps(key, key))
+                    continue;
+                // A table of range tombstones only has no items to look up
+                keyValuePair = sstable.getNumOfItems() == 0 ? null : sstable.get(key);
+                if (keyValuePair != null)
+                    return keyValuePair;
+                // The items of an SSTable are newer than its range tombstones, which only delete older data
+                if (sstable.getRangeTombstones().covers(key))
+                    return new Pair<>(key, null);
+            }
+            return null;
+        } finally {
+            inMemIndexListReadLock.unlock();
+        }
+    }
+
+    private void processMultiGetCommand(final MultiGetCommand command) {
+        try {
+            List<String> keys = command.getKeys();
+            if (keys == null || keys.isEmpty())
+                throw new IllegalArgumentException("The keys are null or empty");
+            for (String key : keys) {
+                if (key == null)
+                    throw new IllegalArgumentException("The key is null");
+            }
+
+            Map<String, Pair<String, String>> found = multiLookup(keys);
+            List<Pair<String, String>> items = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                Pair<String, String> keyValuePair = found.get(key);
+                items.add(new Pair<>(key, keyValuePair == null ? null : keyValuePair.getValue()));
+            }
+            command.getResultHandler().handle(new CommandResult(ResultStatus.OK, items));
+        } catch (Throwable e) {
+            logger.error(e.toString());
+            logger.error(e.getStackTrace().toString());
             command.getResultHandler().handle(
-                    new CommandResult(ResultStatus.OK, null, null)
+                    new CommandResult(ResultStatus.ERROR, null, e)
             );
+        }
+    }
+
+    /**
+     * Looks up a batch of keys like lookup(), but probes every memtable once for the batch and visits every
+     * SSTable once with the sorted keys it may hold, so the keys sharing a block share its read. Returns the
+     * newest version of every key found, a deleted key is returned with a null value.
+     */
+    private Map<String, Pair<String, String>> multiLookup(final List<String> keys) throws IOException, InterruptedException {
+        if (!inMemIndexListReadLock.tryLock(ACQUIRE_LOCK_TIMEOUT, ACQUIRE_LOCK_TIMEOUT_UNIT))
+            throw new AcquireLockTimeoutException("Failed to acquire lock " + inMemIndexListReadLock.toString() + " in thread: " + Thread.currentThread().getName());
+
+        try {
+            List<String> pendingKeys = new ArrayList<>(new TreeSet<>(keys));
+            Map<String, Pair<String, String>> found = new HashMap<>();
+
+            List<Memtable> memtables = new ArrayList<>();
+            memtables.add(currentMemtableARef.get());
+            memtables.addAll(immutableMemtables);
+            for (Memtable memtable : memtables) {
+                List<String> remainingKeys = new ArrayList<>();
+                for (String key : pendingKeys) {
+                    Pair<String, String> keyValuePair = memtable.find(key);
+                    if (keyValuePair != null)
+                        found.put(key, keyValuePair);
+                    else
+                        remainingKeys.add(key);
+                }
+                pendingKeys = remainingKeys;
+            }
+
+            for (SSTable sstable : sstables) {
+                if (pendingKeys.isEmpty())
+                    break;
+                if (!sstable.overlaps(pendingKeys.get(0), pendingKeys.get(pendingKeys.size() - 1)))
+                    continue;
+
+                List<String> candidateKeys = new ArrayList<>();
+                for (String key : pendingKeys) {
+                    if (sstable.overlaps(key, key))
+                        candidateKeys.add(key);
+                }
+                if (candidateKeys.isEmpty())
+                    continue;
+
+                // A table of range tombstones only has no items to look up
+                List<Pair<String, String>> keyValuePairs = sstable.getNumOfItems() == 0 ? null : sstable.multiGet(candidateKeys);
+                Set<String> resolvedKeys = new HashSet<>();
+                for (int i = 0; i < candidateKeys.size(); i++) {
+                    String key = candidateKeys.get(i);
+                    Pair<String, String> keyValuePair = keyValuePairs == null ? null : keyValuePairs.get(i);
+                    // The items of an SSTable are newer than its range tombstones, which only delete older data
+                    if (keyValuePair == null && sstable.getRangeTombstones().covers(key))
+                        keyValuePair = new Pair<>(key, null);
+                    if (keyValuePair != null) {
+                        found.put(key, keyValuePair);
+                        resolvedKeys.add(key);
+                    }
+                }
+                if (!resolvedKeys.isEmpty())
+                    pendingKeys.removeIf(resolvedKeys::contains);
+            }
+            return found;
+        } finally {
+            inMemIndexListReadLock.unlock();
+        }
+    }
+
+    private void processScanCommand(final ScanCommand command) {
+        try {
+            if (command.getLimit() <= 0)
+                throw new IllegalArgumentException("The limit must be > 0");
+            int maxScanLimit = getServerConfiguration().getLsm().getMaxScanLimit();
+            if (command.getLimit() > maxScanLimit)
+                throw new IllegalArgumentException("The limit must be <= " + maxScanLimit);
+
+            List<Pair<String, String>> items = scan(command.getKey(), command.getEndKey(), command.getLimit());
+            command.getResultHandler().handle(new CommandResult(ResultStatus.OK, items));
         } catch (Throwable e) {
             logger.error(e.toString());
             logger.error(e.getStackTrace().toString());
@@ -461,7 +981,121 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         }
     }
 
-    private void processPutCommand(final PutCommand command) {
+    /**
+     * Scans the range page by page. The read lock is only held for a page, so that a long scan does not
+     * hold up the flushes and compactions which install their SSTables under the write lock. Each page
+     * reads the latest data, a scan is therefore not a snapshot of the whole range.
+     */
+    private List<Pair<String, String>> scan(final String startKey, final String endKey, final int limit) throws InterruptedException {
+        List<Pair<String, String>> items = new ArrayList<>();
+        String pageStartKey = startKey;
+        while (items.size() < limit) {
+            int pageLimit = Math.min(SCAN_PAGE_SIZE, limit - items.size());
+            List<Pair<String, String>> page = scanPage(pageStartKey, endKey, pageLimit);
+            items.addAll(page);
+            if (page.size() < pageLimit)
+                break;
+            // The smallest key after the last one of the page
+            pageStartKey = page.get(page.size() - 1).getKey() + '\0';
+        }
+        return items;
+    }
+
+    /**
+     * Merges the memtables and the SSTables overlapping the range, from the newest to the oldest like a
+     * lookup. The range tombstones of every source hide the keys of the older sources.
+     */
+    private List<Pair<String, String>> scanPage(final String startKey, final String endKey, final int limit) throws InterruptedException {
+        if (!inMemIndexListReadLock.tryLock(ACQUIRE_LOCK_TIMEOUT, ACQUIRE_LOCK_TIMEOUT_UNIT))
+            throw new AcquireLockTimeoutException("Failed to acquire lock " + inMemIndexListReadLock.toString() + " in thread: " + Thread.currentThread().getName());
+
+        try {
+            List<Iterator<Pair<String, String>>> sources = new ArrayList<>();
+            List<List<RangeTombstone>> sourceRangeTombstones = new ArrayList<>();
+
+            Memtable currentMemtable = currentMemtableARef.get();
+            long snapshot = currentMemtable.getSequence();
+            sources.add(currentMemtable.iterator(startKey, snapshot));
+            sourceRangeTombstones.add(currentMemtable.getRangeTombstones(snapshot));
+
+            for (Memtable immutableMemtable : immutableMemtables) {
+                sources.add(immutableMemtable.iterator(startKey, immutableMemtable.getSequence()));
+                sourceRangeTombstones.add(immutableMemtable.getRangeTombstones());
+            }
+
+            for (SSTable sstable : sstables) {
+                if (!overlaps(sstable, startKey, endKey))
+                    continue;
+                // A table without keys of the prefix is not read, but its range tombstones still hide older keys
+                if (sstable.mightContainKeys(startKey, endKey))
+                    sources.add(sstable.iterator(startKey, endKey));
+                else
+                    sources.add(Collections.emptyIterator());
+                sourceRangeTombstones.add(sstable.getRangeTombstones().getRanges());
+            }
+
+            List<SSTableSequenceReader> readers = new ArrayList<>();
+            List<RangeTombstone> newerRangeTombstones = new ArrayList<>();
+            for (int i = 0; i < sources.size(); i++) {
+                Iterator<Pair<String, String>> source = sources.get(i);
+                if (!newerRangeTombstones.isEmpty())
+                    source = new RangeTombstoneFilter(source, RangeTombstoneSet.of(newerRangeTombstones));
+                readers.add(new SSTableSequenceReader(source));
+                newerRangeTombstones.addAll(sourceRangeTombstones.get(i));
+            }
+
+            List<Pair<String, String>> items = new ArrayList<>();
+            SSTableMergeIterator iterator = new SSTableMergeIterator(readers);
+            while (items.size() < limit && iterator.hasNext()) {
+                Pair<String, String> item = iterator.next();
+                if (endKey != null && item.getKey().compareTo(endKey) >= 0)
+                    break;
+                if (item.getValue() != null)
+                    items.add(item);
+            }
+            return items;
+        } finally {
+            inMemIndexListReadLock.unlock();
+        }
+    }
+
+    private static boolean overlaps(SSTable sstable, String startKey, String endKey) {
+        if (sstable.getMinKey() == null)
+            return false;
+        return (endKey == null || sstable.getMinKey().compareTo(endKey) < 0)
+                && (startKey == null || sstable.getMaxKey().compareTo(startKey) >= 0);
+    }
+
+    private CommandResult processDeleteCommand(final DeleteCommand command) {
+        final String key = command.getKey();
+        try {
+            writeAheadLog.appendItem(key, null);
+            return new CommandResult(ResultStatus.OK, null, null);
+        } catch (Throwable e) {
+            logger.error(e.toString());
+            logger.error(e.getStackTrace().toString());
+            return new CommandResult(ResultStatus.ERROR, null, e);
+        }
+    }
+
+    private CommandResult processDeleteRangeCommand(final DeleteRangeCommand command) {
+        final String startKey = command.getKey();
+        final String endKey = command.getEndKey();
+        try {
+            if (startKey == null || startKey.length() == 0 || endKey == null || startKey.compareTo(endKey) >= 0) {
+                throw new IllegalArgumentException("The start key must be less than the end key");
+            }
+
+            writeAheadLog.appendRangeDelete(startKey, endKey);
+            return new CommandResult(ResultStatus.OK, null, null);
+        } catch (Throwable e) {
+            logger.error(e.toString());
+            logger.error(e.getStackTrace().toString());
+            return new CommandResult(ResultStatus.ERROR, null, e);
+        }
+    }
+
+    private CommandResult processPutCommand(final PutCommand command) {
         final String key = command.getKey();
         final String value = command.getValue();
         try {
@@ -472,23 +1106,13 @@ public class LsmStorageEngine extends AbstractStorageEngine {
                 throw new IllegalArgumentException();
             }
 
-            Memtable currentMemtable = this.currentMemtableARef.get();
-
             writeAheadLog.appendItem(key, value);
-            currentMemtable.put(key, value);
-            if (currentMemtable.getRawDataSize() >= MEMTABLE_THRESHOLD) {
-                createSSTable();
-            }
 
-            command.getResultHandler().handle(
-                    new CommandResult(ResultStatus.OK, value, null)
-            );
+            return new CommandResult(ResultStatus.OK, value, null);
         } catch (Throwable e) {
             logger.error(e.toString());
             logger.error(e.getStackTrace().toString());
-            command.getResultHandler().handle(
-                    new CommandResult(ResultStatus.ERROR, null, e)
-            );
+            return new CommandResult(ResultStatus.ERROR, null, e);
         }
     }
 
@@ -518,13 +1142,42 @@ public class LsmStorageEngine extends AbstractStorageEngine {
             StringBuilder sb = new StringBuilder();
             sb.append("Engine class: " + getClass().getName() + "\n");
             sb.append("Database file folder: " + dbFileFolder + "\n");
+            sb.append("Memtable: " + currentMemtableARef.get().getRawDataSize() + " bytes, immutable memtables: "
+                    + immutableMemtables.size() + "\n");
             sb.append("In memory index tables: " + "\n");
+            long bloomFilterProbes = 0;
+            long bloomFilterNegatives = 0;
+            long bloomFilterFalsePositives = 0;
+            long prefixFilterProbes = 0;
+            long prefixFilterNegatives = 0;
             for (SSTable sstable : sstables) {
-                sb.append("\t SSTable: " + sstable.getFile().getAbsolutePath() + "\n");
+                bloomFilterProbes += sstable.getBloomFilterProbes();
+                bloomFilterNegatives += sstable.getBloomFilterNegatives();
+                bloomFilterFalsePositives += sstable.getBloomFilterFalsePositives();
+                prefixFilterProbes += sstable.getPrefixFilterProbes();
+                prefixFilterNegatives += sstable.getPrefixFilterNegatives();
+                sb.append("\t SSTable: L" + sstable.getLevel() + " " + sstable.getFile().getAbsolutePath()
+                        + ", " + sstable.getFileSize() + " bytes"
+                        + ", " + sstable.getNumOfItems() + " items (" + sstable.getNumOfDeletedItems() + " deleted)"
+                        + ", keys [" + sstable.getMinKey() + ", " + sstable.getMaxKey() + "]"
+                        + ", sequences [" + sstable.getMinSequence() + ", " + sstable.getMaxSequence() + "]"
+                        + (sstable.getRangeTombstones().isEmpty() ? "" : ", " + sstable.getRangeTombstones().size() + " range tombstones")
+                        + "\n");
             }
             if (sstables.size() == 0) {
                 sb.append("\n");
             }
+            sb.append("Bloom filters: " + "\n");
+            sb.append("\t Probes: " + bloomFilterProbes + ", negatives: " + bloomFilterNegatives
+                    + ", false positives: " + bloomFilterFalsePositives + "\n");
+            sb.append("Prefix filters: " + getServerConfiguration().getLsm().getPrefixExtractor() + "\n");
+            sb.append("\t Probes: " + prefixFilterProbes + ", negatives: " + prefixFilterNegatives + "\n");
+            if (blockCache != null) {
+                sb.append("Block cache: " + "\n");
+                sb.append("\t Capacity: " + blockCache.getCapacity() + " bytes, usage: " + blockCache.getUsage() + " bytes\n");
+                sb.append("\t Hits: " + blockCache.getHits() + ", misses: " + blockCache.getMisses()
+                        + ", evictions: " + blockCache.getEvictions() + "\n");
+            }
 
             command.getResultHandler().handle(
                     new CommandResult(ResultStatus.OK, sb.toString(), null)
@@ -538,29 +1191,4 @@ public class LsmStorageEngine extends AbstractStorageEngine {
         }
     }
 
-    private class SSTableCompactor implements Runnable {
-        private final Logger logger = LoggerFactory.getLogger(SSTableCompactor.class);
-        private final Marker marker = MarkerFactory.getMarker("MERGE-N-COMPACT");
-
-        @Override
-        public void run() {
-            logger.info(marker, "Compact and merge background thread starting...");
-            while (true) {
-                try {
-                    compactAndMerge();
-                    Thread.sleep(5 * 1000);
-                } catch (InterruptedException e) {
-                    logger.info(marker, "The merge and compact thread is interrupted and is stopping.");
-                    return;
-                }
-                catch (Exception e) {
-                    logger.error(marker, "Compact and merge met exception: {}\n, Stacktrace: {}", e.toString(), e.getStackTrace().toString());
-                }
-            }
-        }
-
-    }
-
 }
-
-
@@ -12,89 +12,83 @@
 
 package org.netium.server.storageengine.lsm;
 
+import org.netium.server.storageengine.lsm.sstable.RangeTombstone;
 import org.netium.util.Pair;
 
-import java.util.*;
+import java.util.Iterator;
+import java.util.List;
 
-public class Memtable implements Iterable<Pair<String, String>>  {
-    private int version = 0;
-    private int rawSize = 0;
-    private SortedMap<String, String> map = new TreeMap<String, String>();
+/**
+ * A sorted in-memory table of the latest writes. Every put or delete is a new version of the key, the
+ * sequence of the memtable identifies a snapshot of the versions written so far.
+ */
+public interface Memtable extends Iterable<Pair<String, String>>, AutoCloseable {
+    void put(String key, String value);
 
-    public Memtable() {
+    void delete(String key);
 
-    }
+    /**
+     * Deletes the keys with startKey <= key < endKey, in this memtable and in everything older.
+     */
+    void deleteRange(String startKey, String endKey);
 
-    public void put(String key, String value) {
-        if (key == null || key.length() == 0)
-            throw new IllegalArgumentException();
-        if (value == null)
-            throw new IllegalArgumentException("The value is null");
+    /**
+     * Returns the newest version of the key with a sequence not above the snapshot, the value of the pair
+     * is null if the key is deleted or covered by a newer range tombstone, or null if the memtable does
+     * not contain the key.
+     */
+    Pair<String, String> find(String key, long snapshot);
 
-        map.put(key, value);
-        rawSize += (key.getBytes().length + value.getBytes().length);
-        version++;
-    }
+    /**
+     * Iterates the newest version of every key >= startKey in the snapshot, a null startKey starts from the
+     * first key. A version covered by a newer range tombstone is returned as a tombstone.
+     */
+    Iterator<Pair<String, String>> iterator(String startKey, long snapshot);
 
-    public String get(String key) {
-        return map.get(key);
-    }
+    List<RangeTombstone> getRangeTombstones(long snapshot);
+
+    long getSequence();
 
-    public void delete(String key) {
-        if (key == null || key.length() == 0)
-            throw new IllegalArgumentException();
+    /**
+     * The sequence before the first write of the memtable. A memtable continues the sequence of the one it
+     * replaces, so the sequences are global and a newer write always has a higher one.
+     */
+    long getBaseSequence();
 
-        map.put(key, null);
-        rawSize += (key.getBytes().length);
-        version++;
+    long getRawDataSize();
+
+    int size();
+
+    boolean isEmpty();
+
+    default Pair<String, String> find(String key) {
+        return find(key, getSequence());
     }
 
-    public boolean containsKey(String key) {
-        return map.containsKey(key);
+    default String get(String key) {
+        Pair<String, String> keyValuePair = find(key);
+        return keyValuePair == null ? null : keyValuePair.getValue();
     }
 
-    public String read(String key) {
-        return map.get(key);
+    default boolean containsKey(String key) {
+        return find(key) != null;
     }
 
-    public int getRawDataSize() {
-        return rawSize;
+    default Iterator<Pair<String, String>> iterator(long snapshot) {
+        return iterator(null, snapshot);
     }
 
-    public int size() {
-        return map.size();
+    default List<RangeTombstone> getRangeTombstones() {
+        return getRangeTombstones(getSequence());
     }
 
     @Override
-    public Iterator<Pair<String, String>> iterator() {
-        return new MemtableIterator(version);
+    default Iterator<Pair<String, String>> iterator() {
+        return iterator(getSequence());
     }
 
-    private class MemtableIterator implements Iterator<Pair<String, String>> {
-        private final int snapshotVersion;
-        private final Iterator<String> iterator;
-
-        public MemtableIterator(int version) {
-            this.snapshotVersion = version;
-            iterator = map.keySet().iterator();
-        }
-
-        @Override
-        public boolean hasNext() {
-            if (snapshotVersion != version) {
-                throw new IllegalStateException();
-            }
-            return iterator.hasNext();
-
-        }
-
-        @Override
-        public Pair<String, String> next() {
-            if (snapshotVersion != version) {
-                throw new IllegalStateException();
-            }
-            String key = iterator.next();
-            return new Pair<>(key, map.get(key));
-        }
+    @Override
+    default void close() {
+
     }
 }
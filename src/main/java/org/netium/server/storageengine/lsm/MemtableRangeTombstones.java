@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.netium.server.storageengine.lsm.sstable.RangeTombstone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The range tombstones of a memtable with their sequence numbers. Range deletes are rare, so a copy on
+ * write list is cheap and the common case of no tombstone costs a single check.
+ */
+final class MemtableRangeTombstones {
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+
+    void add(RangeTombstone rangeTombstone, long sequence) {
+        entries.add(new Entry(rangeTombstone, sequence));
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Returns true if a tombstone visible in the snapshot covers the key and is newer than the version.
+     */
+    boolean covers(String key, long versionSequence, long snapshot) {
+        if (entries.isEmpty())
+            return false;
+
+        for (Entry entry : entries) {
+            if (entry.sequence > versionSequence && entry.sequence <= snapshot && entry.rangeTombstone.covers(key))
+                return true;
+        }
+        return false;
+    }
+
+    List<RangeTombstone> get(long snapshot) {
+        List<RangeTombstone> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.sequence <= snapshot)
+                result.add(entry.rangeTombstone);
+        }
+        return result;
+    }
+
+    private static final class Entry {
+        private final RangeTombstone rangeTombstone;
+        private final long sequence;
+
+        Entry(RangeTombstone rangeTombstone, long sequence) {
+            this.rangeTombstone = rangeTombstone;
+            this.sequence = sequence;
+        }
+    }
+}
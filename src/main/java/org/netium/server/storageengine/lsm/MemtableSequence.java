@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sequence numbers of a memtable. A write takes the next sequence before it inserts its version and
+ * publishes it once the version is in place. The visible sequence only advances in order, so a snapshot at
+ * the visible sequence never misses a version which a concurrent writer is still inserting.
+ */
+final class MemtableSequence {
+    private final AtomicLong allocated;
+    private final AtomicLong visible;
+
+    MemtableSequence(long baseSequence) {
+        allocated = new AtomicLong(baseSequence);
+        visible = new AtomicLong(baseSequence);
+    }
+
+    long next() {
+        return allocated.incrementAndGet();
+    }
+
+    /**
+     * Makes the sequence visible after the ones before it, it must be called for every sequence taken by
+     * next(), also when the write failed.
+     */
+    void publish(long sequence) {
+        // The writer of the previous sequence is only a few instructions away from publishing, but it may be
+        // descheduled, so spinning gives way to yielding before long
+        for (int spins = 0; !visible.compareAndSet(sequence - 1, sequence); spins++) {
+            if (spins < 64)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+    }
+
+    long getVisible() {
+        return visible.get();
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.netium.server.storageengine.lsm.sstable.RangeTombstone;
+import org.netium.server.storageengine.lsm.utils.DirectBuffers;
+import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
+import org.netium.util.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A memtable which keeps the encoded key/value records in off-heap arena chunks, only a skip list of
+ * references to the records stays on the heap. Records are laid out like the SSTable data records:
+ * [short keyLength][key][int valueLength, -1 for a tombstone][value].
+ * The whole arena is freed at once by close(), the memtable must not be used after that. The rare range
+ * tombstones stay on the heap.
+ */
+public class OffHeapMemtable implements Memtable {
+    public final static int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final int chunkSize;
+
+    private final long baseSequence;
+    private final MemtableSequence sequence;
+    private final AtomicLong rawSize = new AtomicLong();
+    private final AtomicLong arenaSize = new AtomicLong();
+    private final AtomicInteger nEntries = new AtomicInteger();
+    private final ConcurrentSkipListSet<RecordRef> index = new ConcurrentSkipListSet<>();
+    private final MemtableRangeTombstones rangeTombstones = new MemtableRangeTombstones();
+
+    private volatile Chunk currentChunk;
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    public OffHeapMemtable() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public OffHeapMemtable(int chunkSize) {
+        this(chunkSize, 0);
+    }
+
+    public OffHeapMemtable(int chunkSize, long baseSequence) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("The chunkSize must be > 0");
+        if (baseSequence < 0)
+            throw new IllegalArgumentException("The baseSequence is < 0");
+
+        this.chunkSize = chunkSize;
+        this.baseSequence = baseSequence;
+        this.sequence = new MemtableSequence(baseSequence);
+        currentChunk = newChunk(chunkSize);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        if (key == null || key.length() == 0)
+            throw new IllegalArgumentException();
+        if (value == null)
+            throw new IllegalArgumentException("The value is null");
+
+        add(key, value);
+    }
+
+    @Override
+    public void delete(String key) {
+        if (key == null || key.length() == 0)
+            throw new IllegalArgumentException();
+
+        add(key, null);
+    }
+
+    @Override
+    public void deleteRange(String startKey, String endKey) {
+        RangeTombstone rangeTombstone = new RangeTombstone(startKey, endKey);
+
+        long tombstoneSequence = sequence.next();
+        try {
+            rangeTombstones.add(rangeTombstone, tombstoneSequence);
+        } finally {
+            sequence.publish(tombstoneSequence);
+        }
+        rawSize.addAndGet(Short.BYTES + KeyValuePairCoder.encodedLength(startKey)
+                + Integer.BYTES + KeyValuePairCoder.encodedLength(endKey));
+    }
+
+    @Override
+    public Pair<String, String> find(String key, long snapshot) {
+        byte[] keyBuf = KeyValuePairCoder.encodeString(key);
+        RecordRef ref = index.ceiling(new RecordRef(ByteBuffer.wrap(keyBuf), 0, keyBuf.length, snapshot));
+        boolean found = ref != null && ref.hasSameKey(keyBuf);
+        if (rangeTombstones.covers(key, found ? ref.sequence : 0, snapshot))
+            return new Pair<>(key, null);
+
+        return found ? ref.toPair() : null;
+    }
+
+    @Override
+    public List<RangeTombstone> getRangeTombstones(long snapshot) {
+        return rangeTombstones.get(snapshot);
+    }
+
+    @Override
+    public Iterator<Pair<String, String>> iterator(String startKey, long snapshot) {
+        return new MemtableIterator(startKey, snapshot);
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence.getVisible();
+    }
+
+    @Override
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    @Override
+    public long getRawDataSize() {
+        return rawSize.get();
+    }
+
+    public long getArenaSize() {
+        return arenaSize.get();
+    }
+
+    @Override
+    public int size() {
+        return nEntries.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty() && rangeTombstones.isEmpty();
+    }
+
+    /**
+     * Frees the arena chunks right away, the caller guarantees that no reader or writer uses the memtable.
+     */
+    @Override
+    public synchronized void close() {
+        currentChunk = null;
+        index.clear();
+        for (Chunk chunk : chunks) {
+            DirectBuffers.release(chunk.buffer);
+        }
+        chunks.clear();
+        arenaSize.set(0);
+    }
+
+    private void add(String key, String value) {
+        int keyLength = KeyValuePairCoder.encodedLength(key);
+        if (keyLength > Short.MAX_VALUE)
+            throw new IllegalArgumentException("The encoded key length exceeds " + Short.MAX_VALUE + " bytes");
+        int valueLength = value == null ? -1 : KeyValuePairCoder.encodedLength(value);
+        int recordSize = Short.BYTES + keyLength + Integer.BYTES + Math.max(valueLength, 0);
+
+        while (true) {
+            Chunk chunk = currentChunk;
+            if (chunk == null)
+                throw new IllegalStateException("The memtable is closed");
+
+            int offset = chunk.allocate(recordSize);
+            if (offset < 0) {
+                rollChunk(chunk, recordSize);
+                continue;
+            }
+
+            ByteBuffer buffer = chunk.buffer;
+            buffer.putShort(offset, (short)keyLength);
+            KeyValuePairCoder.encodeString(key, buffer, offset + Short.BYTES);
+            buffer.putInt(offset + Short.BYTES + keyLength, valueLength);
+            if (value != null)
+                KeyValuePairCoder.encodeString(value, buffer, offset + Short.BYTES + keyLength + Integer.BYTES);
+
+            long versionSequence = sequence.next();
+            try {
+                index.add(new RecordRef(buffer, offset + Short.BYTES, keyLength, versionSequence));
+            } finally {
+                sequence.publish(versionSequence);
+            }
+            rawSize.addAndGet(recordSize);
+            nEntries.incrementAndGet();
+            return;
+        }
+    }
+
+    private synchronized void rollChunk(Chunk fullChunk, int recordSize) {
+        if (currentChunk == fullChunk)
+            currentChunk = newChunk(Math.max(chunkSize, recordSize));
+    }
+
+    private synchronized Chunk newChunk(int size) {
+        arenaSize.addAndGet(size);
+        Chunk chunk = new Chunk(ByteBuffer.allocateDirect(size));
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    private static final class Chunk {
+        private final ByteBuffer buffer;
+        private final AtomicInteger position = new AtomicInteger();
+
+        Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int allocate(int size) {
+            while (true) {
+                int offset = position.get();
+                if (offset + size > buffer.capacity())
+                    return -1;
+                if (position.compareAndSet(offset, offset + size))
+                    return offset;
+            }
+        }
+    }
+
+    private static final class RecordRef implements Comparable<RecordRef> {
+        private final ByteBuffer buffer;
+        private final int keyOffset;
+        private final int keyLength;
+        private final long sequence;
+
+        RecordRef(ByteBuffer buffer, int keyOffset, int keyLength, long sequence) {
+            this.buffer = buffer;
+            this.keyOffset = keyOffset;
+            this.keyLength = keyLength;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(RecordRef other) {
+            int cmp = compareKey(other);
+            if (cmp != 0)
+                return cmp;
+            return Long.compare(other.sequence, sequence);
+        }
+
+        int compareKey(RecordRef other) {
+            return KeyValuePairCoder.compareEncoded(buffer, keyOffset, keyLength, other.buffer, other.keyOffset, other.keyLength);
+        }
+
+        boolean hasSameKey(byte[] key) {
+            if (key.length != keyLength)
+                return false;
+            for (int i = 0; i < keyLength; i++) {
+                if (buffer.get(keyOffset + i) != key[i])
+                    return false;
+            }
+            return true;
+        }
+
+        String getKey() {
+            return KeyValuePairCoder.decodeString(buffer, keyOffset, keyLength);
+        }
+
+        Pair<String, String> toPair() {
+            int valueLengthOffset = keyOffset + keyLength;
+            int valueLength = buffer.getInt(valueLengthOffset);
+            String value = valueLength < 0 ? null : KeyValuePairCoder.decodeString(buffer, valueLengthOffset + Integer.BYTES, valueLength);
+            return new Pair<>(getKey(), value);
+        }
+    }
+
+    private class MemtableIterator implements Iterator<Pair<String, String>> {
+        private final long snapshot;
+        private final Iterator<RecordRef> iterator;
+        private RecordRef nextRef;
+
+        public MemtableIterator(String startKey, long snapshot) {
+            this.snapshot = snapshot;
+            if (startKey == null) {
+                iterator = index.iterator();
+            } else {
+                byte[] keyBuf = KeyValuePairCoder.encodeString(startKey);
+                iterator = index.tailSet(new RecordRef(ByteBuffer.wrap(keyBuf), 0, keyBuf.length, Long.MAX_VALUE)).iterator();
+            }
+            nextRef = advance(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextRef != null;
+        }
+
+        @Override
+        public Pair<String, String> next() {
+            if (nextRef == null)
+                throw new NoSuchElementException();
+
+            RecordRef ref = nextRef;
+            nextRef = advance(ref);
+            Pair<String, String> pair = ref.toPair();
+            if (rangeTombstones.covers(pair.getKey(), ref.sequence, snapshot))
+                return new Pair<>(pair.getKey(), null);
+            return pair;
+        }
+
+        private RecordRef advance(RecordRef previousRef) {
+            while (iterator.hasNext()) {
+                RecordRef ref = iterator.next();
+                if (ref.sequence > snapshot)
+                    continue;
+                if (previousRef != null && ref.compareKey(previousRef) == 0)
+                    continue;
+                return ref;
+            }
+            return null;
+        }
+    }
+}
@@ -12,5 +12,315 @@
 
 package org.netium.server.storageengine.lsm;
 
+import org.netium.server.storageengine.lsm.sstable.BlockCache;
+import org.netium.server.storageengine.lsm.sstable.BlockCompression;
+import org.netium.server.storageengine.lsm.sstable.PrefixExtractor;
+import org.netium.server.storageengine.lsm.sstable.RangeTombstone;
+import org.netium.server.storageengine.lsm.sstable.RangeTombstoneFilter;
+import org.netium.server.storageengine.lsm.sstable.RangeTombstoneSet;
+import org.netium.server.storageengine.lsm.sstable.SSTable;
+import org.netium.server.storageengine.lsm.sstable.SSTableConstants;
+import org.netium.server.storageengine.lsm.sstable.SSTableCreator;
+import org.netium.server.storageengine.lsm.sstable.SSTableMergeIterator;
+import org.netium.server.storageengine.lsm.sstable.SSTableSequenceReader;
+import org.netium.server.storageengine.lsm.utils.IoRateLimiter;
+import org.netium.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Executes a compaction task: merges the input SSTables, keeps the newest version of every key and writes
+ * the result into new SSTables of the output level, each of them about the target size. A level 0 output
+ * is a single SSTable named after the newest input, so that it keeps the recency position of its inputs.
+ * A large compaction into a deeper level is split into disjoint key ranges at block boundaries of the
+ * inputs, and the ranges are merged in parallel on the pool. Reads and writes go through the rate limiter.
+ * The range tombstones of the inputs delete the keys of the older inputs and are carried into the outputs,
+ * clipped to the key range of every output, unless no older SSTable outside of the task overlaps them.
+ */
 public class SSTableCompactor {
+    private final Logger logger = LoggerFactory.getLogger(SSTableCompactor.class);
+
+    private final File folder;
+    private final int blockSize;
+    private final long targetFileSize;
+    private final BlockCache blockCache;
+    private final ForkJoinPool pool;
+    private final IoRateLimiter rateLimiter;
+    private BlockCompression compression = BlockCompression.NONE;
+    private int restartInterval = SSTableConstants.DEFAULT_RESTART_INTERVAL;
+    private double bloomFilterFalsePositiveRate = SSTableConstants.DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE;
+    private PrefixExtractor prefixExtractor = null;
+
+    public SSTableCompactor(File folder, int blockSize, long targetFileSize, BlockCache blockCache) {
+        this(folder, blockSize, targetFileSize, blockCache, null, null);
+    }
+
+    public SSTableCompactor(File folder, int blockSize, long targetFileSize, BlockCache blockCache,
+                            ForkJoinPool pool, IoRateLimiter rateLimiter) {
+        if (folder == null)
+            throw new IllegalArgumentException("The folder is null");
+
+        this.folder = folder;
+        this.blockSize = blockSize;
+        this.targetFileSize = targetFileSize;
+        this.blockCache = blockCache;
+        this.pool = pool;
+        this.rateLimiter = rateLimiter;
+    }
+
+    public void setCompression(BlockCompression compression) {
+        if (compression == null)
+            throw new IllegalArgumentException("The compression is null");
+        this.compression = compression;
+    }
+
+    public void setRestartInterval(int restartInterval) {
+        if (restartInterval <= 0)
+            throw new IllegalArgumentException("The restartInterval is <= 0");
+        this.restartInterval = restartInterval;
+    }
+
+    public void setBloomFilterFalsePositiveRate(double bloomFilterFalsePositiveRate) {
+        if (bloomFilterFalsePositiveRate <= 0 || bloomFilterFalsePositiveRate >= 1)
+            throw new IllegalArgumentException("The bloomFilterFalsePositiveRate must be in (0, 1)");
+        this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    }
+
+    public void setPrefixExtractor(PrefixExtractor prefixExtractor) {
+        this.prefixExtractor = prefixExtractor;
+    }
+
+    public List<SSTable> compact(CompactionTask task) throws IOException {
+        logger.info("Start to compact {}", task);
+
+        long totalItems = 0;
+        for (SSTable input : task.getInputs()) {
+            totalItems += Math.max(input.getNumOfItems(), 0);
+        }
+        long totalSize = Math.max(task.getInputSize(), 1);
+        int approxItemsPerOutput = task.getOutputLevel() == 0
+                ? (int)Math.max(1, totalItems)
+                : (int)Math.max(1, Math.min(totalItems, totalItems * targetFileSize / totalSize + 1));
+
+        List<String> boundaries = splitKeyRange(task);
+        List<RangeCompaction> ranges = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            ranges.add(new RangeCompaction(task, approxItemsPerOutput,
+                    i == 0 ? null : boundaries.get(i - 1),
+                    i == boundaries.size() ? null : boundaries.get(i)));
+        }
+
+        List<File> outputFiles = new ArrayList<>();
+        try {
+            if (pool == null || ranges.size() == 1) {
+                for (RangeCompaction range : ranges) {
+                    outputFiles.addAll(range.call());
+                }
+            } else {
+                List<Future<List<File>>> futures = pool.invokeAll(ranges);
+                for (Future<List<File>> future : futures) {
+                    outputFiles.addAll(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortRanges(ranges);
+            throw new IOException("The compaction is interrupted", e);
+        } catch (ExecutionException e) {
+            abortRanges(ranges);
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (IOException | RuntimeException e) {
+            abortRanges(ranges);
+            throw e;
+        }
+
+        List<SSTable> outputs = new ArrayList<>();
+        for (File outputFile : outputFiles) {
+            outputs.add(new SSTable(outputFile, blockCache));
+        }
+
+        logger.info("Finish compacting {} into {} tables in {} ranges", task, outputs.size(), ranges.size());
+        return outputs;
+    }
+
+    private List<String> splitKeyRange(CompactionTask task) {
+        if (pool == null || task.getOutputLevel() == 0)
+            return Collections.emptyList();
+
+        int nRanges = (int)Math.min(pool.getParallelism(), task.getInputSize() / targetFileSize);
+        if (nRanges <= 1)
+            return Collections.emptyList();
+
+        List<String> blockKeys = new ArrayList<>();
+        for (SSTable input : task.getInputs()) {
+            for (int block = 0; block < input.getNumOfBlocks(); block++) {
+                blockKeys.add(input.getBlockFirstKey(block));
+            }
+        }
+        Collections.sort(blockKeys);
+
+        List<String> boundaries = new ArrayList<>();
+        for (int i = 1; i < nRanges; i++) {
+            String boundary = blockKeys.get(i * blockKeys.size() / nRanges);
+            if (boundary.compareTo(blockKeys.get(0)) > 0
+                    && (boundaries.isEmpty() || boundary.compareTo(boundaries.get(boundaries.size() - 1)) > 0))
+                boundaries.add(boundary);
+        }
+        return boundaries;
+    }
+
+    private void abortRanges(List<RangeCompaction> ranges) {
+        for (RangeCompaction range : ranges) {
+            range.abortOutputs();
+        }
+    }
+
+    private static File temporaryFileOf(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Merges the items with startKey <= key < endKey of all the inputs. An output covers the keys from the
+     * end of the previous output to the first key of the next one, and gets the range tombstones of that span.
+     */
+    private class RangeCompaction implements Callable<List<File>> {
+        private final CompactionTask task;
+        private final int approxItemsPerOutput;
+        private final String startKey;
+        private final String endKey;
+        private final long outputOrderIndex;
+
+        private final List<File> outputFiles = new ArrayList<>();
+        private SSTableCreator creator = null;
+        private File creatorFile = null;
+        private boolean creatorFull = false;
+        private String outputStartKey;
+        private RangeTombstoneSet rangeTombstones = RangeTombstoneSet.EMPTY;
+
+        RangeCompaction(CompactionTask task, int approxItemsPerOutput, String startKey, String endKey) {
+            this.task = task;
+            this.approxItemsPerOutput = approxItemsPerOutput;
+            this.startKey = startKey;
+            this.endKey = endKey;
+            this.outputStartKey = startKey;
+            this.outputOrderIndex = task.getOutputLevel() == 0
+                    ? DBFilenameUtil.getFileOrderIndex(task.getInputs().get(0).getFile().getName())
+                    : -1;
+        }
+
+        @Override
+        public List<File> call() throws IOException {
+            ArrayList<SSTableSequenceReader> readers = new ArrayList<>();
+            List<RangeTombstone> newerRangeTombstones = new ArrayList<>();
+            for (SSTable input : task.getInputs()) {
+                Iterator<Pair<String, String>> iterator = input.iterator(startKey, endKey, rateLimiter);
+                if (!newerRangeTombstones.isEmpty())
+                    iterator = new RangeTombstoneFilter(iterator, RangeTombstoneSet.of(newerRangeTombstones));
+                readers.add(new SSTableSequenceReader(iterator));
+                newerRangeTombstones.addAll(input.getRangeTombstones().clip(startKey, endKey));
+            }
+
+            List<RangeTombstone> keptRangeTombstones = new ArrayList<>();
+            for (RangeTombstone rangeTombstone : RangeTombstoneSet.of(newerRangeTombstones).getRanges()) {
+                if (!task.canDropTombstones(rangeTombstone.getStartKey(), rangeTombstone.getEndKey()))
+                    keptRangeTombstones.add(rangeTombstone);
+            }
+            rangeTombstones = RangeTombstoneSet.of(keptRangeTombstones);
+
+            try {
+                SSTableMergeIterator iterator = new SSTableMergeIterator(readers);
+                while (iterator.hasNext()) {
+                    Pair<String, String> pair = iterator.next();
+                    if (pair.getValue() == null
+                            && (rangeTombstones.covers(pair.getKey()) || task.canDropTombstones(pair.getKey(), pair.getKey())))
+                        continue;
+                    write(pair);
+                }
+                if (creator == null && !rangeTombstones.clip(outputStartKey, endKey).isEmpty())
+                    openOutput();
+                finishOutput(endKey);
+            } catch (UncheckedIOException e) {
+                abortOutputs();
+                throw e.getCause();
+            } catch (IOException | RuntimeException e) {
+                abortOutputs();
+                throw e;
+            }
+            return new ArrayList<>(outputFiles);
+        }
+
+        private void write(Pair<String, String> keyValuePair) throws IOException {
+            if (creatorFull)
+                finishOutput(keyValuePair.getKey());
+            if (creator == null)
+                openOutput();
+
+            creator.write(keyValuePair);
+
+            if (task.getOutputLevel() > 0 && creator.getDataSize() >= targetFileSize)
+                creatorFull = true;
+        }
+
+        private void openOutput() throws IOException {
+            creatorFile = new File(folder, outputOrderIndex >= 0
+                    ? DBFilenameUtil.generateNewMergedDBName(outputOrderIndex)
+                    : DBFilenameUtil.generateNewSSTableDBName());
+            creator = new SSTableCreator(temporaryFileOf(creatorFile), approxItemsPerOutput, blockSize);
+            creator.setLevel(task.getOutputLevel());
+            creator.setRateLimiter(rateLimiter);
+            creator.setCompression(compression);
+            creator.setRestartInterval(restartInterval);
+            creator.setSequenceRange(task.getMinSequence(), task.getMaxSequence());
+            creator.setBloomFilterFalsePositiveRate(bloomFilterFalsePositiveRate);
+            creator.setPrefixExtractor(prefixExtractor);
+        }
+
+        private void finishOutput(String outputEndKey) throws IOException {
+            if (creator == null)
+                return;
+
+            for (RangeTombstone rangeTombstone : rangeTombstones.clip(outputStartKey, outputEndKey)) {
+                creator.addRangeTombstone(rangeTombstone);
+            }
+            outputStartKey = outputEndKey;
+
+            creator.close();
+            creator = null;
+            creatorFull = false;
+
+            if (!temporaryFileOf(creatorFile).renameTo(creatorFile))
+                throw new IOException("Failed to rename the compaction output to " + creatorFile);
+            outputFiles.add(creatorFile);
+        }
+
+        private void abortOutputs() {
+            if (creator != null) {
+                try {
+                    creator.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close the compaction output: {}", e.toString());
+                }
+                creator = null;
+                temporaryFileOf(creatorFile).delete();
+            }
+            for (File outputFile : outputFiles) {
+                outputFile.delete();
+            }
+            outputFiles.clear();
+        }
+    }
 }
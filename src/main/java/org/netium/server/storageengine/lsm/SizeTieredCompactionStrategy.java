@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.netium.server.configuration.LsmConfiguration;
+import org.netium.server.storageengine.lsm.sstable.SSTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Size-tiered compaction: every SSTable stays in the level 0, and a run of at least minThreshold SSTables of
+ * similar size is merged into one larger SSTable. Only runs of SSTables adjacent in recency are merged, so
+ * the merged SSTable takes the place of the run and the recency order of the level 0 is kept.
+ */
+public class SizeTieredCompactionStrategy implements CompactionStrategy {
+    public final static int MAX_THRESHOLD = 32;
+
+    private final double bucketRatio;
+    private final int minThreshold;
+
+    public SizeTieredCompactionStrategy(LsmConfiguration configuration) {
+        this.bucketRatio = configuration.getSizeTieredBucketRatio();
+        this.minThreshold = configuration.getSizeTieredMinThreshold();
+    }
+
+    @Override
+    public CompactionTask pickCompaction(List<SSTable> sstables) {
+        List<SSTable> level0 = new ArrayList<>();
+        List<SSTable> deeperLevels = new ArrayList<>();
+        for (SSTable sstable : sstables) {
+            if (sstable.getLevel() == 0) {
+                level0.add(sstable);
+            } else {
+                deeperLevels.add(sstable);
+            }
+        }
+
+        int bestStart = -1;
+        int bestEnd = -1;
+        double bestAverageSize = Double.MAX_VALUE;
+        for (int start = 0; start < level0.size(); start++) {
+            long minSize = level0.get(start).getFileSize();
+            long maxSize = minSize;
+            long totalSize = minSize;
+            int end = start + 1;
+            while (end < level0.size() && end - start < MAX_THRESHOLD) {
+                long size = level0.get(end).getFileSize();
+                long newMinSize = Math.min(minSize, size);
+                long newMaxSize = Math.max(maxSize, size);
+                if (newMaxSize > bucketRatio * Math.max(newMinSize, 1))
+                    break;
+                minSize = newMinSize;
+                maxSize = newMaxSize;
+                totalSize += size;
+                end++;
+            }
+
+            double averageSize = (double)totalSize / (end - start);
+            if (end - start >= minThreshold && averageSize < bestAverageSize) {
+                bestStart = start;
+                bestEnd = end;
+                bestAverageSize = averageSize;
+            }
+        }
+        if (bestStart < 0)
+            return null;
+
+        List<SSTable> olderTables = new ArrayList<>(level0.subList(bestEnd, level0.size()));
+        olderTables.addAll(deeperLevels);
+        return new CompactionTask(0, 0, level0.subList(bestStart, bestEnd), olderTables);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.netium.server.storageengine.lsm.sstable.RangeTombstone;
+import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
+import org.netium.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A memtable on top of a lock-free skip list. Every put or delete adds a new version of the key tagged with
+ * an increasing sequence number, so readers and iterators never block writers and an iterator only sees
+ * the versions which existed when it was created.
+ */
+public class SkipListMemtable implements Memtable {
+    private static final String TOMBSTONE = new String();
+
+    private final long baseSequence;
+    private final MemtableSequence sequence;
+    private final AtomicLong rawSize = new AtomicLong();
+    private final AtomicInteger nEntries = new AtomicInteger();
+    private final ConcurrentSkipListMap<VersionedKey, String> map = new ConcurrentSkipListMap<>();
+    private final MemtableRangeTombstones rangeTombstones = new MemtableRangeTombstones();
+
+    public SkipListMemtable() {
+        this(0);
+    }
+
+    public SkipListMemtable(long baseSequence) {
+        if (baseSequence < 0)
+            throw new IllegalArgumentException("The baseSequence is < 0");
+
+        this.baseSequence = baseSequence;
+        this.sequence = new MemtableSequence(baseSequence);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        if (key == null || key.length() == 0)
+            throw new IllegalArgumentException();
+        if (value == null)
+            throw new IllegalArgumentException("The value is null");
+
+        add(key, value, Integer.BYTES + KeyValuePairCoder.encodedLength(value));
+    }
+
+    @Override
+    public void delete(String key) {
+        if (key == null || key.length() == 0)
+            throw new IllegalArgumentException();
+
+        add(key, TOMBSTONE, Integer.BYTES);
+    }
+
+    @Override
+    public void deleteRange(String startKey, String endKey) {
+        RangeTombstone rangeTombstone = new RangeTombstone(startKey, endKey);
+
+        long tombstoneSequence = sequence.next();
+        try {
+            rangeTombstones.add(rangeTombstone, tombstoneSequence);
+        } finally {
+            sequence.publish(tombstoneSequence);
+        }
+        rawSize.addAndGet(Short.BYTES + KeyValuePairCoder.encodedLength(startKey)
+                + Integer.BYTES + KeyValuePairCoder.encodedLength(endKey));
+    }
+
+    @Override
+    public Pair<String, String> find(String key, long snapshot) {
+        Map.Entry<VersionedKey, String> entry = map.ceilingEntry(new VersionedKey(key, snapshot));
+        boolean found = entry != null && entry.getKey().key.equals(key);
+        if (rangeTombstones.covers(key, found ? entry.getKey().sequence : 0, snapshot))
+            return new Pair<>(key, null);
+
+        return found ? toPair(entry) : null;
+    }
+
+    @Override
+    public List<RangeTombstone> getRangeTombstones(long snapshot) {
+        return rangeTombstones.get(snapshot);
+    }
+
+    @Override
+    public long getSequence() {
+        return sequence.getVisible();
+    }
+
+    @Override
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    @Override
+    public long getRawDataSize() {
+        return rawSize.get();
+    }
+
+    @Override
+    public int size() {
+        return nEntries.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty() && rangeTombstones.isEmpty();
+    }
+
+    @Override
+    public Iterator<Pair<String, String>> iterator(String startKey, long snapshot) {
+        return new MemtableIterator(startKey, snapshot);
+    }
+
+    private void add(String key, String value, int valueSize) {
+        long versionSequence = sequence.next();
+        try {
+            map.put(new VersionedKey(key, versionSequence), value);
+        } finally {
+            sequence.publish(versionSequence);
+        }
+        rawSize.addAndGet(Short.BYTES + KeyValuePairCoder.encodedLength(key) + valueSize);
+        nEntries.incrementAndGet();
+    }
+
+    private static Pair<String, String> toPair(Map.Entry<VersionedKey, String> entry) {
+        String value = entry.getValue();
+        return new Pair<>(entry.getKey().key, value == TOMBSTONE ? null : value);
+    }
+
+    private static final class VersionedKey implements Comparable<VersionedKey> {
+        private final String key;
+        private final long sequence;
+
+        VersionedKey(String key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(VersionedKey other) {
+            int cmp = key.compareTo(other.key);
+            if (cmp != 0)
+                return cmp;
+            return Long.compare(other.sequence, sequence);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof VersionedKey)) return false;
+            VersionedKey other = (VersionedKey) o;
+            return sequence == other.sequence && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, sequence);
+        }
+    }
+
+    private class MemtableIterator implements Iterator<Pair<String, String>> {
+        private final long snapshot;
+        private final Iterator<Map.Entry<VersionedKey, String>> iterator;
+        private Map.Entry<VersionedKey, String> nextEntry;
+
+        public MemtableIterator(String startKey, long snapshot) {
+            this.snapshot = snapshot;
+            iterator = startKey == null
+                    ? map.entrySet().iterator()
+                    : map.tailMap(new VersionedKey(startKey, Long.MAX_VALUE)).entrySet().iterator();
+            nextEntry = advance(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry != null;
+        }
+
+        @Override
+        public Pair<String, String> next() {
+            if (nextEntry == null)
+                throw new NoSuchElementException();
+
+            Map.Entry<VersionedKey, String> entry = nextEntry;
+            nextEntry = advance(entry.getKey().key);
+            if (rangeTombstones.covers(entry.getKey().key, entry.getKey().sequence, snapshot))
+                return new Pair<>(entry.getKey().key, null);
+            return toPair(entry);
+        }
+
+        private Map.Entry<VersionedKey, String> advance(String previousKey) {
+            while (iterator.hasNext()) {
+                Map.Entry<VersionedKey, String> entry = iterator.next();
+                if (entry.getKey().sequence > snapshot)
+                    continue;
+                if (previousKey != null && entry.getKey().key.equals(previousKey))
+                    continue;
+                return entry;
+            }
+            return null;
+        }
+    }
+}
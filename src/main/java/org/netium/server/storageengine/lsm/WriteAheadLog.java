@@ -17,172 +17,444 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32C;
 
-public class WriteAheadLog {
+/**
+ * The write ahead log is a folder of preallocated, memory-mapped segment files named by an
+ * increasing segment id. Every record is framed as [payload length][CRC32C of payload][payload],
+ * a zero length marks the unused, preallocated tail of a segment.
+ */
+public class WriteAheadLog implements AutoCloseable {
     private final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
 
     private final static String FILE_SUFFIX = ".wal";
 
+    private final static byte[] SEGMENT_MAGIC = "ZEUSWAL".getBytes(StandardCharsets.US_ASCII);
+    private final static byte SEGMENT_VERSION = 1;
+    private final static int SEGMENT_HEADER_SIZE = SEGMENT_MAGIC.length + Byte.BYTES;
+
+    private final static int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+
+    private final static byte RECORD_TYPE_PUT = 1;
+    private final static byte RECORD_TYPE_DELETE = 2;
+    private final static byte RECORD_TYPE_DELETE_RANGE = 3;
+
+    private final static long LEGACY_SEGMENT_ID = 0;
+
     private final File logFolder;
-    private final File logFile;
-    private RandomAccessFile logAccessFile;
+    private final int segmentSize;
 
-    public WriteAheadLog(String folder) {
-        this(new File(folder));
-    }
+    private final TreeMap<Long, File> segments = new TreeMap<>();
 
-    public WriteAheadLog(File logFolder) {
-        try {
-            if (logFolder.exists() && logFolder.isFile()) {
-                throw new IllegalArgumentException();
-            }
-            this.logFolder = logFolder;
-            if (!logFolder.exists()) {
-                logFolder.mkdirs();
-            }
+    private long currentSegmentId = -1;
+    private MappedByteBuffer currentSegment;
+    private boolean unsynced = false;
+    private long batchStartSegmentId = -1;
+    private int batchStartOffset = -1;
 
-            correctLogFolder();
-            logFile = getLogFile();
-            logAccessFile = new RandomAccessFile(logFile, "rw");
+    private final CRC32C crc = new CRC32C();
+
+    private Iterator<Map.Entry<Long, File>> replaySegmentIterator;
+    private ByteBuffer replaySegment;
+    private DataInputStream replayLegacySegment;
+    private WriteAheadLogRecord replayNextRecord;
+
+    public WriteAheadLog(String folder, int segmentSize) {
+        this(new File(folder), segmentSize);
+    }
+
+    public WriteAheadLog(File logFolder, int segmentSize) {
+        if (logFolder.exists() && logFolder.isFile()) {
+            throw new IllegalArgumentException("The log folder " + logFolder + " is a file");
         }
-        catch (IOException e) {
-            throw new WriteAheadLogException(e);
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("The segment size " + segmentSize + " is too small");
+        }
+        this.logFolder = logFolder;
+        this.segmentSize = segmentSize;
+        if (!logFolder.exists()) {
+            logFolder.mkdirs();
         }
+
+        loadSegments();
     }
 
     public synchronized void prepareForReplay() {
-        try {
-            logAccessFile.seek(0);
-        }
-        catch (IOException e) {
-            throw new WriteAheadLogException(e);
-        }
+        closeLegacySegment();
+        replaySegmentIterator = new TreeMap<>(segments).entrySet().iterator();
+        replaySegment = null;
+        replayNextRecord = null;
     }
 
     public synchronized boolean isEof() {
-        try {
-            return logAccessFile.getFilePointer() == logAccessFile.length();
-        } catch (IOException e) {
-            throw new WriteAheadLogException(e);
+        if (replayNextRecord == null) {
+            replayNextRecord = readNextReplayRecord();
+        }
+        return replayNextRecord == null;
+    }
+
+    public synchronized WriteAheadLogRecord replayNextRecord() {
+        if (isEof()) {
+            throw new WriteAheadLogException("No more item in the write ahead log");
         }
+        WriteAheadLogRecord record = replayNextRecord;
+        replayNextRecord = null;
+        return record;
     }
 
+    /**
+     * Replays the next put or delete as a key/value pair, the value is null for a delete.
+     */
     public synchronized Pair<String, String> replayNextItem() {
-        return replayNextItem(logAccessFile);
+        WriteAheadLogRecord record = replayNextRecord();
+        if (record.getType() == WriteAheadLogRecord.Type.DELETE_RANGE) {
+            throw new WriteAheadLogException("The next record is a range delete");
+        }
+        return new Pair<>(record.getKey(), record.getValue());
     }
 
     public synchronized void appendItem(String key, String value) {
         logger.debug("WAL: APPEND: {}, {}", key, value);
-        appendItem(logAccessFile, key, value);
+
+        if (key == null || key.length() == 0) {
+            throw new IllegalArgumentException("The key is null or empty");
+        }
+        if (value != null && value.length() == 0) {
+            throw new IllegalArgumentException("The value is empty");
+        }
+
+        appendRecord(value == null ? RECORD_TYPE_DELETE : RECORD_TYPE_PUT, key, value);
     }
 
-    public synchronized WriteAheadLog createNewLogFile() {
-        try {
-            logAccessFile.close();
-            logFile.delete();
-            return new WriteAheadLog(logFolder);
-        } catch (IOException e) {
-            throw new WriteAheadLogException(e);
+    public synchronized void appendRangeDelete(String startKey, String endKey) {
+        logger.debug("WAL: APPEND RANGE DELETE: {}, {}", startKey, endKey);
+
+        if (startKey == null || startKey.length() == 0) {
+            throw new IllegalArgumentException("The startKey is null or empty");
+        }
+        if (endKey == null || endKey.length() == 0) {
+            throw new IllegalArgumentException("The endKey is null or empty");
         }
 
+        appendRecord(RECORD_TYPE_DELETE_RANGE, startKey, endKey);
     }
 
+    private void appendRecord(byte recordType, String key, String value) {
+        byte[] keyBytes = key.getBytes(Charset.defaultCharset());
+        if (keyBytes.length > 127) {
+            throw new IllegalArgumentException("The key exceed the length");
+        }
+        byte[] valueBytes = value == null ? new byte[0] : value.getBytes(Charset.defaultCharset());
 
-    private Pair<String, String> replayNextItem(DataInput dataInput) {
-        try {
-            int keyLength = dataInput.readByte();
-            if (keyLength < 0) {
-                throw new IllegalArgumentException();
-            }
-            byte[] keyBuf = new byte[keyLength];
-            dataInput.readFully(keyBuf);
-            String key = new String(keyBuf);
+        int payloadLength = Byte.BYTES + Byte.BYTES + keyBytes.length + Integer.BYTES + valueBytes.length;
+        int recordLength = RECORD_HEADER_SIZE + payloadLength;
+        if (recordLength > segmentSize - SEGMENT_HEADER_SIZE) {
+            throw new IllegalArgumentException("The record exceeds the segment size " + segmentSize);
+        }
 
-            int valueLength = dataInput.readInt();
-            if (valueLength < 0) {
-                throw new IllegalArgumentException();
-            }
-            String value = null;
-            if (valueLength > 0) {
-                byte[] valueBuf = new byte[valueLength];
-                dataInput.readFully(valueBuf);
-                value = new String(valueBuf);
+        if (currentSegment == null || currentSegment.remaining() < recordLength) {
+            startNewSegment();
+        }
+
+        int recordStart = currentSegment.position();
+        int payloadStart = recordStart + RECORD_HEADER_SIZE;
+        currentSegment.position(payloadStart);
+        currentSegment.put(recordType);
+        currentSegment.put((byte) keyBytes.length);
+        currentSegment.put(keyBytes);
+        currentSegment.putInt(valueBytes.length);
+        currentSegment.put(valueBytes);
+
+        ByteBuffer payload = currentSegment.duplicate();
+        payload.position(payloadStart).limit(payloadStart + payloadLength);
+        crc.reset();
+        crc.update(payload);
+
+        currentSegment.putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+        currentSegment.putInt(recordStart, payloadLength);
+        unsynced = true;
+    }
+
+    public synchronized boolean hasPendingItems() {
+        return unsynced;
+    }
+
+    public synchronized void sync() {
+        if (!unsynced)
+            return;
+
+        currentSegment.force();
+        unsynced = false;
+    }
+
+    /**
+     * Marks the start of a batch of appends, which rollbackBatch() removes again if the batch fails to sync.
+     */
+    public synchronized void markBatchStart() {
+        batchStartSegmentId = -1;
+        if (currentSegment == null) {
+            startNewSegment();
+        }
+        batchStartSegmentId = currentSegmentId;
+        batchStartOffset = currentSegment.position();
+    }
+
+    /**
+     * Removes the records appended since markBatchStart(), so that a failed batch is not replayed after a
+     * restart. The segments started during the batch are deleted and the rest of the batch is zeroed.
+     */
+    public synchronized void rollbackBatch() {
+        if (batchStartSegmentId < 0) {
+            throw new WriteAheadLogException("No batch is marked");
+        }
+
+        Iterator<Map.Entry<Long, File>> iterator = segments.tailMap(batchStartSegmentId, false).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, File> segment = iterator.next();
+            if (!segment.getValue().delete()) {
+                throw new WriteAheadLogException("Failed to delete the write ahead log segment " + segment.getValue());
             }
+            iterator.remove();
+        }
 
-            return new Pair<>(key, value);
+        int batchEndOffset;
+        if (currentSegmentId == batchStartSegmentId) {
+            batchEndOffset = currentSegment.position();
+        } else {
+            currentSegment = mapSegment(segments.get(batchStartSegmentId));
+            currentSegmentId = batchStartSegmentId;
+            batchEndOffset = segmentSize;
         }
-        catch (IOException e) {
-            throw new WriteAheadLogException(e);
+
+        // Every byte is cleared, a stale record right behind a later shorter batch would be replayed otherwise
+        for (int offset = batchStartOffset; offset < batchEndOffset; offset++) {
+            currentSegment.put(offset, (byte) 0);
         }
+        currentSegment.position(batchStartOffset);
+        currentSegment.force();
+        unsynced = false;
     }
 
-    private void appendItem(RandomAccessFile dataOutput, String key, String value) {
-        try {
-            logAccessFile.seek(logAccessFile.length());
-            if (key == null || key.length() == 0) {
-                throw new IllegalArgumentException("The key is null or empty");
-            }
-            if (value != null && value.length() == 0) {
-                throw new IllegalArgumentException("The value is empty");
-            }
+    /**
+     * Closes the current segment for appending and starts a new one. Returns the id of the new segment,
+     * all items appended before this call live in segments with a smaller id.
+     */
+    public synchronized long startNewSegment() {
+        sync();
 
-            byte[] keyBytes = key.getBytes(Charset.defaultCharset());
-            if (keyBytes.length > 127) {
-                throw new IllegalArgumentException("The key exceed the length");
-            }
+        long segmentId = segments.isEmpty() ? LEGACY_SEGMENT_ID + 1 : Math.max(segments.lastKey(), currentSegmentId) + 1;
+        File segmentFile = new File(logFolder, segmentId + FILE_SUFFIX);
 
-            byte[] valueBytes = value == null ? new byte[0] : value.getBytes(Charset.defaultCharset());
-            if (valueBytes.length > Integer.MAX_VALUE) {
-                throw new IllegalArgumentException("The value exceed the length");
-            }
+        currentSegment = mapSegment(segmentFile);
+        currentSegment.put(SEGMENT_MAGIC);
+        currentSegment.put(SEGMENT_VERSION);
+        currentSegment.force();
+
+        currentSegmentId = segmentId;
+        segments.put(segmentId, segmentFile);
+
+        logger.debug("WAL: start new segment {}", segmentFile);
+        return segmentId;
+    }
 
-            dataOutput.writeByte(keyBytes.length);
-            dataOutput.write(keyBytes);
-            dataOutput.writeInt(valueBytes.length);
-            if (valueBytes.length > 0) {
-                dataOutput.write(valueBytes);
+    public synchronized void retireSegmentsBefore(long segmentId) {
+        Iterator<Map.Entry<Long, File>> iterator = segments.headMap(segmentId, false).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, File> segment = iterator.next();
+            if (segment.getKey() == currentSegmentId)
+                continue;
+
+            logger.debug("WAL: retire segment {}", segment.getValue());
+            if (!segment.getValue().delete()) {
+                logger.warn("Failed to delete the write ahead log segment {}", segment.getValue());
             }
-            logAccessFile.getFD().sync();
+            iterator.remove();
         }
-        catch (IOException e) {
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+        currentSegment = null;
+    }
+
+    private MappedByteBuffer mapSegment(File segmentFile) {
+        try (RandomAccessFile segmentAccessFile = new RandomAccessFile(segmentFile, "rw")) {
+            segmentAccessFile.setLength(segmentSize);
+            return segmentAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
             throw new WriteAheadLogException(e);
         }
     }
 
-    private void correctLogFolder() {
+    private void loadSegments() {
         File[] logFiles = logFolder.listFiles(pathname -> pathname.isFile() && pathname.getName().endsWith(FILE_SUFFIX));
-        if (logFiles.length > 1) {
-            Arrays.sort(logFiles, (file1, file2) -> {
-                if (file1.lastModified() > file2.lastModified()) {
-                    return -1;
+        File legacyLogFile = null;
+        for (File logFile : logFiles) {
+            String name = logFile.getName();
+            try {
+                long segmentId = Long.parseLong(name.substring(0, name.length() - FILE_SUFFIX.length()));
+                if (segmentId <= LEGACY_SEGMENT_ID)
+                    throw new NumberFormatException();
+                segments.put(segmentId, logFile);
+            } catch (NumberFormatException e) {
+                if (legacyLogFile == null || logFile.lastModified() > legacyLogFile.lastModified()) {
+                    legacyLogFile = logFile;
                 }
-                else if (file1.lastModified() == file2.lastModified()) {
-                    return 0;
-                }
-                else {
-                    return 1;
+            }
+        }
+        if (legacyLogFile != null) {
+            logger.info("Found legacy write ahead log file {}", legacyLogFile);
+            segments.put(LEGACY_SEGMENT_ID, legacyLogFile);
+        }
+    }
+
+    private WriteAheadLogRecord readNextReplayRecord() {
+        while (true) {
+            if (replaySegment == null && replayLegacySegment == null) {
+                if (replaySegmentIterator == null || !replaySegmentIterator.hasNext())
+                    return null;
+
+                Map.Entry<Long, File> segment = replaySegmentIterator.next();
+                if (segment.getKey() == LEGACY_SEGMENT_ID) {
+                    replayLegacySegment = openLegacySegment(segment.getValue());
+                } else {
+                    replaySegment = openSegment(segment.getValue());
                 }
-            });
-            for (int i = 1; i < logFiles.length; i++) {
-                logFiles[i].delete();
+                continue;
+            }
+
+            WriteAheadLogRecord record = replayLegacySegment != null
+                    ? readLegacyRecord(replayLegacySegment)
+                    : readRecord(replaySegment);
+            if (record != null)
+                return record;
+
+            closeLegacySegment();
+            replaySegment = null;
+        }
+    }
+
+    private ByteBuffer openSegment(File segmentFile) {
+        try (RandomAccessFile segmentAccessFile = new RandomAccessFile(segmentFile, "r")) {
+            ByteBuffer segment = segmentAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segmentAccessFile.length());
+            if (segment.remaining() < SEGMENT_HEADER_SIZE) {
+                logger.warn("The write ahead log segment {} is truncated, skip it", segmentFile);
+                return null;
+            }
+            for (byte magic : SEGMENT_MAGIC) {
+                if (segment.get() != magic)
+                    throw new WriteAheadLogException("The file " + segmentFile + " is not a write ahead log segment");
+            }
+            if (segment.get() != SEGMENT_VERSION)
+                throw new WriteAheadLogException("The write ahead log segment " + segmentFile + " has an unknown version");
+            return segment;
+        } catch (IOException e) {
+            throw new WriteAheadLogException(e);
+        }
+    }
+
+    private WriteAheadLogRecord readRecord(ByteBuffer segment) {
+        if (segment.remaining() < RECORD_HEADER_SIZE)
+            return null;
+
+        int recordStart = segment.position();
+        int payloadLength = segment.getInt(recordStart);
+        if (payloadLength == 0)
+            return null;
+
+        int payloadStart = recordStart + RECORD_HEADER_SIZE;
+        if (payloadLength < 0 || payloadLength > segment.limit() - payloadStart) {
+            logger.warn("Torn write ahead log record at offset {}, stop replaying the segment", recordStart);
+            return null;
+        }
+
+        ByteBuffer payload = segment.duplicate();
+        payload.position(payloadStart).limit(payloadStart + payloadLength);
+        crc.reset();
+        crc.update(payload);
+        if ((int) crc.getValue() != segment.getInt(recordStart + Integer.BYTES)) {
+            logger.warn("Write ahead log record at offset {} fails the checksum, stop replaying the segment", recordStart);
+            return null;
+        }
+
+        payload.position(payloadStart);
+        try {
+            byte recordType = payload.get();
+            byte[] keyBuf = new byte[payload.get()];
+            payload.get(keyBuf);
+            byte[] valueBuf = new byte[payload.getInt()];
+            payload.get(valueBuf);
+
+            segment.position(payloadStart + payloadLength);
+
+            String key = new String(keyBuf, Charset.defaultCharset());
+            switch (recordType) {
+                case RECORD_TYPE_PUT:
+                    return new WriteAheadLogRecord(WriteAheadLogRecord.Type.PUT, key, new String(valueBuf, Charset.defaultCharset()));
+                case RECORD_TYPE_DELETE:
+                    return new WriteAheadLogRecord(WriteAheadLogRecord.Type.DELETE, key, null);
+                case RECORD_TYPE_DELETE_RANGE:
+                    return new WriteAheadLogRecord(WriteAheadLogRecord.Type.DELETE_RANGE, key, new String(valueBuf, Charset.defaultCharset()));
+                default:
+                    throw new WriteAheadLogException("Unknown write ahead log record type " + recordType + " at offset " + recordStart);
             }
+        } catch (RuntimeException e) {
+            throw new WriteAheadLogException("Malformed write ahead log record at offset " + recordStart, e);
+        }
+    }
+
+    private void closeLegacySegment() {
+        if (replayLegacySegment == null)
+            return;
+
+        try {
+            replayLegacySegment.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the legacy write ahead log: {}", e.toString());
+        }
+        replayLegacySegment = null;
+    }
+
+    private DataInputStream openLegacySegment(File segmentFile) {
+        try {
+            return new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)));
+        } catch (IOException e) {
+            throw new WriteAheadLogException(e);
         }
     }
 
-    private File getLogFile() {
+    private WriteAheadLogRecord readLegacyRecord(DataInput dataInput) {
         try {
-            File[] logFiles = logFolder.listFiles(pathname -> pathname.isFile() && pathname.getName().endsWith(FILE_SUFFIX));
-            if (logFiles.length > 1) {
-                logger.error("The write ahead log folder contains {} (>0) log files", logFiles.length);
+            int keyLength = dataInput.readByte();
+            if (keyLength < 0) {
+                throw new IllegalArgumentException();
             }
-            if (logFiles.length > 0) {
-                return logFiles[0];
-            } else {
-                File logFile = File.createTempFile("wal", FILE_SUFFIX, logFolder);
-                return logFile;
+            byte[] keyBuf = new byte[keyLength];
+            dataInput.readFully(keyBuf);
+            String key = new String(keyBuf);
+
+            int valueLength = dataInput.readInt();
+            if (valueLength < 0) {
+                throw new IllegalArgumentException();
             }
+            String value = null;
+            if (valueLength > 0) {
+                byte[] valueBuf = new byte[valueLength];
+                dataInput.readFully(valueBuf);
+                value = new String(valueBuf);
+            }
+
+            return new WriteAheadLogRecord(value == null ? WriteAheadLogRecord.Type.DELETE : WriteAheadLogRecord.Type.PUT, key, value);
+        }
+        catch (EOFException e) {
+            return null;
         }
         catch (IOException e) {
             throw new WriteAheadLogException(e);
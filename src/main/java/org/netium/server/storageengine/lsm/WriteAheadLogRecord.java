@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+/**
+ * A replayed write ahead log record. The value is null for a delete and is the exclusive end key for a
+ * range delete.
+ */
+public final class WriteAheadLogRecord {
+    public enum Type {
+        PUT,
+        DELETE,
+        DELETE_RANGE
+    }
+
+    private final Type type;
+    private final String key;
+    private final String value;
+
+    public WriteAheadLogRecord(Type type, String key, String value) {
+        if (type == null)
+            throw new IllegalArgumentException("The type is null");
+
+        this.type = type;
+        this.key = key;
+        this.value = value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
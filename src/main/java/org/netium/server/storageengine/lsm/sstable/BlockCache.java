@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A block cache shared by all the SSTables of an engine. The byte budget is split over a number of
+ * shards, every shard evicts its least recently used blocks.
+ */
+public final class BlockCache {
+    private static final int SHARD_COUNT = 16;
+    private static final int BLOCK_OVERHEAD = 64;
+
+    private final long capacity;
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity is <= 0");
+
+        this.capacity = capacity;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard(Math.max(capacity / SHARD_COUNT, 1));
+        }
+    }
+
+    public SSTableBlock get(long tableId, long offset) {
+        BlockKey key = new BlockKey(tableId, offset);
+        SSTableBlock block = shardOf(key).get(key);
+        if (block != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return block;
+    }
+
+    public void put(long tableId, long offset, SSTableBlock block) {
+        if (block == null)
+            throw new IllegalArgumentException("The block is null");
+
+        BlockKey key = new BlockKey(tableId, offset);
+        shardOf(key).put(key, block);
+    }
+
+    public void invalidate(long tableId) {
+        for (Shard shard : shards) {
+            shard.invalidate(tableId);
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsage() {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.getUsage();
+        }
+        return usage;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private Shard shardOf(BlockKey key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % SHARD_COUNT];
+    }
+
+    private static long chargeOf(SSTableBlock block) {
+        return block.getSize() + BLOCK_OVERHEAD;
+    }
+
+    private final class Shard {
+        private final long capacity;
+        private long usage = 0;
+        private final LinkedHashMap<BlockKey, SSTableBlock> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized SSTableBlock get(BlockKey key) {
+            return blocks.get(key);
+        }
+
+        synchronized void put(BlockKey key, SSTableBlock block) {
+            long charge = chargeOf(block);
+            if (charge > capacity)
+                return;
+
+            SSTableBlock previous = blocks.put(key, block);
+            if (previous != null)
+                usage -= chargeOf(previous);
+            usage += charge;
+
+            Iterator<Map.Entry<BlockKey, SSTableBlock>> iterator = blocks.entrySet().iterator();
+            while (usage > capacity && iterator.hasNext()) {
+                Map.Entry<BlockKey, SSTableBlock> eldest = iterator.next();
+                usage -= chargeOf(eldest.getValue());
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void invalidate(long tableId) {
+            Iterator<Map.Entry<BlockKey, SSTableBlock>> iterator = blocks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<BlockKey, SSTableBlock> entry = iterator.next();
+                if (entry.getKey().tableId == tableId) {
+                    usage -= chargeOf(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        synchronized long getUsage() {
+            return usage;
+        }
+    }
+
+    private static final class BlockKey {
+        private final long tableId;
+        private final long offset;
+
+        BlockKey(long tableId, long offset) {
+            this.tableId = tableId;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BlockKey)) return false;
+            BlockKey other = (BlockKey) o;
+            return tableId == other.tableId && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tableId, offset);
+        }
+    }
+}
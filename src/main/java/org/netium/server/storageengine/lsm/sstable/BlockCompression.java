@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The codec of the data blocks of an SSTable. A compressed block is stored as the raw length followed by
+ * the compressed bytes, so it is inflated into an exactly sized buffer in one pass.
+ */
+public enum BlockCompression {
+    NONE("none"),
+    DEFLATE("deflate");
+
+    private final String name;
+
+    BlockCompression(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static BlockCompression fromName(String name) {
+        if (name == null)
+            return NONE;
+
+        for (BlockCompression compression : values()) {
+            if (compression.name.equals(name))
+                return compression;
+        }
+        throw new BadSSTableException("Unknown block compression: " + name);
+    }
+
+    byte[] compress(byte[] data, int length, Deflater deflater) {
+        if (this == NONE)
+            return length == data.length ? data : Arrays.copyOf(data, length);
+
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 16);
+        byte[] header = ByteBuffer.allocate(Integer.BYTES).putInt(length).array();
+        output.write(header, 0, header.length);
+        byte[] buffer = new byte[Math.max(length / 2, 256)];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            output.write(buffer, 0, n);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Decompresses the block between the position and the limit of the buffer, an uncompressed block is
+     * returned as it is.
+     */
+    ByteBuffer decompress(ByteBuffer data) {
+        if (this == NONE)
+            return data;
+
+        if (data.remaining() < Integer.BYTES)
+            throw new BadSSTableException("The compressed block is truncated");
+
+        ByteBuffer input = data.duplicate();
+        int rawLength = input.getInt();
+        if (rawLength < 0)
+            throw new BadSSTableException("The compressed block is corrupted");
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int n = 0;
+            while (n < rawLength) {
+                int inflated = inflater.inflate(raw, n, rawLength - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                n += inflated;
+            }
+            if (n != rawLength)
+                throw new BadSSTableException("The compressed block is corrupted");
+            return ByteBuffer.wrap(raw);
+        } catch (DataFormatException e) {
+            throw new BadSSTableException("The compressed block is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A bloom filter split into 512-bit blocks of one cache line. The high half of the key hash picks the
+ * block and all the bits of the key are set within it, so a probe costs a single memory access. The block
+ * layout needs a little more space than a classic bloom filter for the same false positive rate, which is
+ * compensated in the sizing.
+ */
+public final class BlockedBloomFilter {
+    private final static HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final static int BLOCK_LONGS = 8;
+    private final static int BLOCK_BITS = BLOCK_LONGS * Long.SIZE;
+    private final static int MAX_HASHES = 16;
+
+    private final long[] bits;
+    private final int nBlocks;
+    private final int nHashes;
+
+    private BlockedBloomFilter(long[] bits, int nHashes) {
+        this.bits = bits;
+        this.nBlocks = bits.length / BLOCK_LONGS;
+        this.nHashes = nHashes;
+    }
+
+    public static long hash(String key) {
+        return HASH_FUNCTION.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Builds the filter of the hashed keys, sized for exactly nKeys keys and the false positive rate.
+     */
+    public static BlockedBloomFilter create(long[] keyHashes, int nKeys, double falsePositiveRate) {
+        if (keyHashes == null)
+            throw new IllegalArgumentException("The keyHashes is null");
+        if (nKeys < 0 || nKeys > keyHashes.length)
+            throw new IllegalArgumentException("The nKeys is out of range");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("The falsePositiveRate must be in (0, 1)");
+
+        // The classic optimum of -ln(p) / ln(2)^2 bits per key, plus a fifth for the uneven load of the blocks
+        double bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)) * 1.2;
+        int nHashes = (int)Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2) / 1.2)));
+        long nBlocks = Math.max(1, (long)Math.ceil(nKeys * bitsPerKey / BLOCK_BITS));
+        if (nBlocks * BLOCK_LONGS > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The bloom filter of " + nKeys + " keys is too large");
+
+        BlockedBloomFilter filter = new BlockedBloomFilter(new long[(int)nBlocks * BLOCK_LONGS], nHashes);
+        for (int i = 0; i < nKeys; i++) {
+            filter.put(keyHashes[i]);
+        }
+        return filter;
+    }
+
+    private void put(long hash) {
+        int base = blockOf(hash) * BLOCK_LONGS;
+        int h = (int)hash;
+        int delta = Integer.rotateLeft(h, 15) | 1;
+        for (int i = 0; i < nHashes; i++) {
+            int bit = h & (BLOCK_BITS - 1);
+            bits[base + (bit >>> 6)] |= 1L << bit;
+            h += delta;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        return mightContain(hash(key));
+    }
+
+    public boolean mightContain(long hash) {
+        int base = blockOf(hash) * BLOCK_LONGS;
+        int h = (int)hash;
+        int delta = Integer.rotateLeft(h, 15) | 1;
+        for (int i = 0; i < nHashes; i++) {
+            int bit = h & (BLOCK_BITS - 1);
+            if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+            h += delta;
+        }
+        return true;
+    }
+
+    private int blockOf(long hash) {
+        return (int)(((hash >>> 32) * nBlocks) >>> 32);
+    }
+
+    public int getSizeInBytes() {
+        return bits.length * Long.BYTES;
+    }
+
+    public int getNumOfHashes() {
+        return nHashes;
+    }
+
+    public int writeTo(DataOutput dataOutput) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * 2 + bits.length * Long.BYTES);
+        buffer.putInt(nBlocks);
+        buffer.putInt(nHashes);
+        buffer.asLongBuffer().put(bits);
+        dataOutput.write(buffer.array());
+        return buffer.capacity();
+    }
+
+    public static BlockedBloomFilter readFrom(ByteBuffer buffer) {
+        int nBlocks = buffer.getInt();
+        int nHashes = buffer.getInt();
+        if (nBlocks <= 0 || nHashes <= 0 || nHashes > MAX_HASHES || (long)nBlocks * BLOCK_LONGS * Long.BYTES > buffer.remaining())
+            throw new BadSSTableException("The blocked bloom filter is corrupted");
+
+        long[] bits = new long[nBlocks * BLOCK_LONGS];
+        buffer.asLongBuffer().get(bits);
+        buffer.position(buffer.position() + bits.length * Long.BYTES);
+        return new BlockedBloomFilter(bits, nHashes);
+    }
+}
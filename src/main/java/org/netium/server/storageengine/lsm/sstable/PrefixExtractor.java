@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+/**
+ * Extracts the prefix of a key for the prefix bloom filter, either the first N characters ("fixed:N") or
+ * everything up to and including the first delimiter ("delimiter:C"). A key without such a prefix is
+ * outside the domain of the extractor and is not added to the filter.
+ */
+public final class PrefixExtractor {
+    public static final String NONE = "none";
+
+    private static final String FIXED = "fixed:";
+    private static final String DELIMITER = "delimiter:";
+
+    private final String name;
+    private final int length;
+    private final char delimiter;
+
+    private PrefixExtractor(String name, int length, char delimiter) {
+        this.name = name;
+        this.length = length;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Returns the extractor of the name, or null for a null name or "none".
+     */
+    public static PrefixExtractor fromName(String name) {
+        if (name == null || NONE.equals(name))
+            return null;
+
+        if (name.startsWith(FIXED)) {
+            int length;
+            try {
+                length = Integer.parseInt(name.substring(FIXED.length()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("The prefix extractor " + name + " has no valid length");
+            }
+            if (length <= 0)
+                throw new IllegalArgumentException("The prefix extractor " + name + " has a length <= 0");
+            return new PrefixExtractor(name, length, (char) 0);
+        }
+
+        if (name.startsWith(DELIMITER) && name.length() == DELIMITER.length() + 1)
+            return new PrefixExtractor(name, 0, name.charAt(DELIMITER.length()));
+
+        throw new IllegalArgumentException("The prefix extractor must be " + NONE + ", " + FIXED + "N or " + DELIMITER + "C");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the prefix of the key, or null if the key is outside the domain.
+     */
+    public String extract(String key) {
+        if (length > 0)
+            return key.length() >= length ? key.substring(0, length) : null;
+
+        int index = key.indexOf(delimiter);
+        return index < 0 ? null : key.substring(0, index + 1);
+    }
+
+    /**
+     * Returns the prefix shared by every key with startKey <= key < endKey, or null if the keys of the
+     * range may have different prefixes. A null endKey is unbounded.
+     */
+    public String extractCommonPrefix(String startKey, String endKey) {
+        if (startKey == null)
+            return null;
+
+        String prefix = extract(startKey);
+        if (prefix == null)
+            return null;
+
+        // Every key in [prefix, end of prefix) starts with the prefix, and so has it as its own prefix
+        String prefixEndKey = prefixEndKey(prefix);
+        if (prefixEndKey == null)
+            return endKey == null ? prefix : null;
+        return endKey != null && endKey.compareTo(prefixEndKey) <= 0 ? prefix : null;
+    }
+
+    /**
+     * Returns the smallest key greater than every key starting with the prefix, or null if there is none.
+     */
+    public static String prefixEndKey(String prefix) {
+        StringBuilder endKey = new StringBuilder(prefix);
+        while (endKey.length() > 0) {
+            char last = endKey.charAt(endKey.length() - 1);
+            if (last != Character.MAX_VALUE) {
+                endKey.setCharAt(endKey.length() - 1, (char) (last + 1));
+                return endKey.toString();
+            }
+            endKey.setLength(endKey.length() - 1);
+        }
+        return null;
+    }
+}
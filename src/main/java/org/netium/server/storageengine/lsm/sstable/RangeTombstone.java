@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+/**
+ * Deletes every key with startKey <= key < endKey written before the tombstone. In an SSTable the range
+ * tombstones only apply to the older SSTables, the items of the SSTable itself are newer than its tombstones.
+ */
+public final class RangeTombstone {
+    private final String startKey;
+    private final String endKey;
+
+    public RangeTombstone(String startKey, String endKey) {
+        if (startKey == null || startKey.length() == 0)
+            throw new IllegalArgumentException("The startKey is null or empty");
+        if (endKey == null)
+            throw new IllegalArgumentException("The endKey is null");
+        if (startKey.compareTo(endKey) >= 0)
+            throw new IllegalArgumentException("The startKey must be less than the endKey");
+
+        this.startKey = startKey;
+        this.endKey = endKey;
+    }
+
+    public String getStartKey() {
+        return startKey;
+    }
+
+    public String getEndKey() {
+        return endKey;
+    }
+
+    public boolean covers(String key) {
+        return startKey.compareTo(key) <= 0 && endKey.compareTo(key) > 0;
+    }
+
+    /**
+     * Returns the part of the tombstone with lowKey <= key < highKey, a null bound is unbounded, or null
+     * if nothing is left.
+     */
+    public RangeTombstone clip(String lowKey, String highKey) {
+        String clippedStartKey = lowKey != null && lowKey.compareTo(startKey) > 0 ? lowKey : startKey;
+        String clippedEndKey = highKey != null && highKey.compareTo(endKey) < 0 ? highKey : endKey;
+        if (clippedStartKey.compareTo(clippedEndKey) >= 0)
+            return null;
+        if (clippedStartKey == startKey && clippedEndKey == endKey)
+            return this;
+        return new RangeTombstone(clippedStartKey, clippedEndKey);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + startKey + ", " + endKey + ")";
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.util.Pair;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Skips the items covered by a set of range tombstones, usually the tombstones of the newer sources of a merge.
+ */
+public final class RangeTombstoneFilter implements Iterator<Pair<String, String>> {
+    private final Iterator<Pair<String, String>> iterator;
+    private final RangeTombstoneSet rangeTombstones;
+    private Pair<String, String> nextItem;
+
+    public RangeTombstoneFilter(Iterator<Pair<String, String>> iterator, RangeTombstoneSet rangeTombstones) {
+        this.iterator = iterator;
+        this.rangeTombstones = rangeTombstones;
+        nextItem = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextItem != null;
+    }
+
+    @Override
+    public Pair<String, String> next() {
+        if (nextItem == null)
+            throw new NoSuchElementException();
+
+        Pair<String, String> item = nextItem;
+        nextItem = advance();
+        return item;
+    }
+
+    private Pair<String, String> advance() {
+        while (iterator.hasNext()) {
+            Pair<String, String> item = iterator.next();
+            if (!rangeTombstones.covers(item.getKey()))
+                return item;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable union of range tombstones, kept as sorted and disjoint ranges so that a key is checked
+ * with one binary search.
+ */
+public final class RangeTombstoneSet {
+    public static final RangeTombstoneSet EMPTY = new RangeTombstoneSet(Collections.emptyList());
+
+    private final List<RangeTombstone> ranges;
+
+    private RangeTombstoneSet(List<RangeTombstone> ranges) {
+        this.ranges = ranges;
+    }
+
+    public static RangeTombstoneSet of(Collection<RangeTombstone> tombstones) {
+        if (tombstones.isEmpty())
+            return EMPTY;
+
+        List<RangeTombstone> sorted = new ArrayList<>(tombstones);
+        sorted.sort(Comparator.comparing(RangeTombstone::getStartKey));
+
+        List<RangeTombstone> ranges = new ArrayList<>();
+        RangeTombstone current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); i++) {
+            RangeTombstone next = sorted.get(i);
+            if (next.getStartKey().compareTo(current.getEndKey()) <= 0) {
+                if (next.getEndKey().compareTo(current.getEndKey()) > 0)
+                    current = new RangeTombstone(current.getStartKey(), next.getEndKey());
+            } else {
+                ranges.add(current);
+                current = next;
+            }
+        }
+        ranges.add(current);
+        return new RangeTombstoneSet(Collections.unmodifiableList(ranges));
+    }
+
+    public boolean covers(String key) {
+        int low = 0;
+        int high = ranges.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            RangeTombstone range = ranges.get(mid);
+            if (range.getStartKey().compareTo(key) > 0) {
+                high = mid - 1;
+            } else if (range.getEndKey().compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ranges clipped to lowKey <= key < highKey, a null bound is unbounded.
+     */
+    public List<RangeTombstone> clip(String lowKey, String highKey) {
+        List<RangeTombstone> result = new ArrayList<>();
+        for (RangeTombstone range : ranges) {
+            RangeTombstone clipped = range.clip(lowKey, highKey);
+            if (clipped != null)
+                result.add(clipped);
+        }
+        return result;
+    }
+
+    public List<RangeTombstone> getRanges() {
+        return ranges;
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    public int size() {
+        return ranges.size();
+    }
+}
@@ -15,45 +15,110 @@ package org.netium.server.storageengine.lsm.sstable;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnels;
+import org.netium.server.storageengine.lsm.utils.DirectBuffers;
+import org.netium.server.storageengine.lsm.utils.IoRateLimiter;
 import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
 import org.netium.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class SSTable implements AutoCloseable, Iterable<Pair<String, String>> {
     private final Logger LOGGER = LoggerFactory.getLogger(SSTable.class);
 
+    private static final AtomicLong TABLE_ID_GENERATOR = new AtomicLong();
+
+    private final long tableId = TABLE_ID_GENERATOR.incrementAndGet();
+    private final BlockCache blockCache;
+
     private final File file;
     private final RandomAccessFile sstableAccessFile;
+    private final FileChannel sstableChannel;
 
     private BloomFilter<String> filter;
+    private BlockedBloomFilter blockedFilter;
+    private final LongAdder bloomFilterProbes = new LongAdder();
+    private final LongAdder bloomFilterNegatives = new LongAdder();
+    private final LongAdder bloomFilterFalsePositives = new LongAdder();
+
+    private BlockedBloomFilter prefixFilter;
+    private PrefixExtractor prefixExtractor;
+    private final LongAdder prefixFilterProbes = new LongAdder();
+    private final LongAdder prefixFilterNegatives = new LongAdder();
+
+    private volatile SSTableIndex index = null;
+    private SSTableSectionHeader indexSectionHeader = null;
 
-    private SortedMap<String, Long> index = new TreeMap<String, Long>();
+    private long dataOffset = 0;
+    private long dataSize = 0;
+    private MappedByteBuffer mappedData = null;
 
     private HashMap<String, SSTableSectionHeader> sections = new HashMap<>();
 
     private long nItems = -1;
+    private long nDeletedItems = 0;
+    private long minSequence = 0;
+    private long maxSequence = 0;
+    private int level = 0;
+    private String minKey = null;
+    private String maxKey = null;
+    private final long fileSize;
+    private RangeTombstoneSet rangeTombstones = RangeTombstoneSet.EMPTY;
+    private BlockCompression compression = BlockCompression.NONE;
+    private int restartInterval = 0;
+    private final int minorVersion;
 
     public long getNumOfItems() {
         return nItems;
     }
 
+    /**
+     * The number of point tombstones among the items, 0 if the table predates the count.
+     */
+    public long getNumOfDeletedItems() {
+        return nDeletedItems;
+    }
+
+    /**
+     * The smallest sequence of the writes in the table, 0 if the table predates the sequences.
+     */
+    public long getMinSequence() {
+        return minSequence;
+    }
+
+    public long getMaxSequence() {
+        return maxSequence;
+    }
+
     public SSTable(File file) throws IOException {
+        this(file, null);
+    }
+
+    public SSTable(File file, BlockCache blockCache) throws IOException {
         if (file == null)
             throw new IllegalArgumentException("The file is null");
 
         LOGGER.info("Loading SSTable: {}", file.getAbsolutePath());
 
         this.file = file;
+        this.blockCache = blockCache;
 
         sstableAccessFile = new RandomAccessFile(this.file, "r");
+        sstableChannel = sstableAccessFile.getChannel();
+        fileSize = sstableAccessFile.length();
 
-        if (!SSTableDescriptor.isValidDescriptor(sstableAccessFile))
+        minorVersion = SSTableDescriptor.readMinorVersion(sstableAccessFile);
+        if (minorVersion < 0)
             throw new BadSSTableException("The file " + file.getCanonicalPath() + " is not a valid SSTable");
 
         while(sstableAccessFile.getFilePointer() < sstableAccessFile.length()) {
@@ -66,28 +131,265 @@ public class SSTable implements AutoCloseable, Iterable<Pair<String, String>> {
             loadContent(sstableAccessFile, sectionHeader);
         }
 
+        if (minorVersion >= SSTableDescriptor.MINOR_VER_VARINT_RECORDS && restartInterval <= 0)
+            throw new BadSSTableException("The SSTable " + file.getCanonicalPath() + " has no restart interval");
+
+        // A data section beyond the reach of a single mapping is read with positional reads instead
+        if (dataSize <= Integer.MAX_VALUE)
+            mappedData = sstableChannel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataSize);
+
+        // The tables written before the summary had the key range need the index to find it
+        if (minKey == null && getIndex().size() > 0) {
+            minKey = index.getFirstKey(0);
+            maxKey = readBlock(index.size() - 1).getLastKey();
+        }
     }
 
     public File getFile() {
         return file;
     }
 
+    /**
+     * Returns the block index, which is loaded on the first access so that opening a table only reads its
+     * summary, bloom filter and range tombstones.
+     */
+    SSTableIndex getIndex() {
+        SSTableIndex loadedIndex = index;
+        if (loadedIndex == null) {
+            synchronized (this) {
+                if (index == null) {
+                    try {
+                        index = loadIndex();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to load the index of the SSTable " + file.getAbsolutePath(), e);
+                    }
+                }
+                loadedIndex = index;
+            }
+        }
+        return loadedIndex;
+    }
+
+    boolean isIndexLoaded() {
+        return index != null;
+    }
+
+    public int getNumOfBlocks() {
+        return getIndex().size();
+    }
+
+    public String getBlockFirstKey(int block) {
+        return getIndex().getFirstKey(block);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public String getMinKey() {
+        return minKey;
+    }
+
+    public String getMaxKey() {
+        return maxKey;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public BlockCompression getCompression() {
+        return compression;
+    }
+
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    public RangeTombstoneSet getRangeTombstones() {
+        return rangeTombstones;
+    }
+
+    public boolean overlaps(String startKey, String endKey) {
+        if (minKey == null)
+            return false;
+        return minKey.compareTo(endKey) <= 0 && maxKey.compareTo(startKey) >= 0;
+    }
+
     public Pair<String, String> get(String key) throws IOException {
         if (key == null)
             throw new IllegalArgumentException("The key is null");
 
-        if (filter != null && !filter.mightContain(key))
+        if (!mightContain(key))
             return null;
 
-        if (!index.containsKey(key))
-            return null;
+        int block = getIndex().findBlock(key);
+        Pair<String, String> keyValuePair = block < 0 ? null : readBlock(block).find(key);
+        if (keyValuePair == null && isFiltered())
+            bloomFilterFalsePositives.increment();
+        return keyValuePair;
+    }
+
+    /**
+     * Looks up the keys in ascending order in one pass, the keys falling into the same block share one read
+     * of it. Returns the pairs in the order of the keys, null for a key the table does not contain.
+     */
+    public List<Pair<String, String>> multiGet(List<String> sortedKeys) throws IOException {
+        if (sortedKeys == null)
+            throw new IllegalArgumentException("The sortedKeys is null");
+
+        List<Pair<String, String>> keyValuePairs = new ArrayList<>(sortedKeys.size());
+        int currentBlock = -1;
+        SSTableBlock block = null;
+        for (String key : sortedKeys) {
+            if (key == null)
+                throw new IllegalArgumentException("The key is null");
+            if (!mightContain(key)) {
+                keyValuePairs.add(null);
+                continue;
+            }
+
+            int blockNo = getIndex().findBlock(key);
+            if (blockNo >= 0 && blockNo != currentBlock) {
+                block = readBlock(blockNo);
+                currentBlock = blockNo;
+            }
+            Pair<String, String> keyValuePair = blockNo < 0 ? null : block.find(key);
+            if (keyValuePair == null && isFiltered())
+                bloomFilterFalsePositives.increment();
+            keyValuePairs.add(keyValuePair);
+        }
+        return keyValuePairs;
+    }
+
+    private boolean isFiltered() {
+        return filter != null || blockedFilter != null;
+    }
+
+    private boolean mightContain(String key) {
+        if (!isFiltered())
+            return true;
+
+        bloomFilterProbes.increment();
+        if (blockedFilter != null ? !blockedFilter.mightContain(key) : !filter.mightContain(key)) {
+            bloomFilterNegatives.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getBloomFilterProbes() {
+        return bloomFilterProbes.sum();
+    }
+
+    /**
+     * The number of probes which the bloom filter answered without reading a block.
+     */
+    public long getBloomFilterNegatives() {
+        return bloomFilterNegatives.sum();
+    }
+
+    public long getBloomFilterFalsePositives() {
+        return bloomFilterFalsePositives.sum();
+    }
+
+    /**
+     * Returns false if the prefix bloom filter shows that the table has no key with startKey <= key < endKey,
+     * which is only known when all the keys of the range share one prefix. Range tombstones are not checked.
+     */
+    public boolean mightContainKeys(String startKey, String endKey) {
+        if (prefixFilter == null || prefixExtractor == null)
+            return true;
+
+        String prefix = prefixExtractor.extractCommonPrefix(startKey, endKey);
+        if (prefix == null)
+            return true;
+
+        prefixFilterProbes.increment();
+        if (!prefixFilter.mightContain(prefix)) {
+            prefixFilterNegatives.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getPrefixFilterProbes() {
+        return prefixFilterProbes.sum();
+    }
+
+    public long getPrefixFilterNegatives() {
+        return prefixFilterNegatives.sum();
+    }
+
+    private SSTableBlock readBlock(int block) throws IOException {
+        long offset = getIndex().getOffset(block);
+        if (blockCache != null) {
+            SSTableBlock cachedBlock = blockCache.get(tableId, offset);
+            if (cachedBlock != null)
+                return cachedBlock;
+        }
 
-        try (RandomAccessFile readFile = new RandomAccessFile(this.file, "r")) {
-            long offset = index.get(key);
-            readFile.seek(offset);
-            Pair<String, String> keyValuePair = KeyValuePairCoder.unpack(Channels.newInputStream(readFile.getChannel()));
-            return keyValuePair;
+        SSTableBlock sstableBlock;
+        if (blockCache != null && mappedData != null && compression == BlockCompression.NONE) {
+            // A cached block must not be a view of the mapping, which is released when the table is closed
+            ByteBuffer rawData = readRawBlockData(block);
+            ByteBuffer heapData = ByteBuffer.allocate(rawData.remaining());
+            heapData.put(rawData).flip();
+            sstableBlock = new SSTableBlock(heapData, restartInterval);
+        } else {
+            sstableBlock = readUncachedBlock(block);
         }
+
+        if (blockCache != null)
+            blockCache.put(tableId, offset, sstableBlock);
+
+        return sstableBlock;
+    }
+
+    /**
+     * Reads and decompresses the block without going through the block cache.
+     */
+    SSTableBlock readUncachedBlock(int block) throws IOException {
+        return new SSTableBlock(compression.decompress(readRawBlockData(block)), restartInterval);
+    }
+
+    private ByteBuffer readRawBlockData(int block) throws IOException {
+        SSTableIndex blockIndex = getIndex();
+        long offset = blockIndex.getOffset(block);
+        int size = blockIndex.getSize(block);
+        if (offset < dataOffset || offset + size > dataOffset + dataSize)
+            throw new BadSSTableException("The block at " + offset + " is out of the data section");
+
+        if (mappedData != null) {
+            ByteBuffer buffer = mappedData.duplicate();
+            buffer.position((int)(offset - dataOffset));
+            buffer.limit((int)(offset - dataOffset) + size);
+            return buffer.slice();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        readFully(buffer, offset);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (sstableChannel.read(buffer, offset + buffer.position()) < 0)
+                throw new BadSSTableException("Unexpected end of file when reading at " + offset);
+        }
+    }
+
+    /**
+     * Iterates the items with startKey <= key < endKey block by block, a null bound is unbounded. The blocks
+     * are read around the block cache, so a long scan does not evict the blocks of the point lookups.
+     */
+    public Iterator<Pair<String, String>> iterator(String startKey, String endKey) {
+        return iterator(startKey, endKey, null);
+    }
+
+    public Iterator<Pair<String, String>> iterator(String startKey, String endKey, IoRateLimiter rateLimiter) {
+        return new SSTableRangeIterator(this, startKey, endKey, rateLimiter);
     }
 
     private void loadContent(RandomAccessFile sstableAccessFile, SSTableSectionHeader sectionHeader) throws IOException {
@@ -96,14 +398,24 @@ public class SSTable implements AutoCloseable, Iterable<Pair<String, String>> {
                 loadData(sstableAccessFile, sectionHeader);
                 break;
             case SSTableConstants.INDEX_SECTION_NAME_STRING:
-                loadIndex(sstableAccessFile, sectionHeader);
+                indexSectionHeader = sectionHeader;
+                bypassSection(sstableAccessFile, sectionHeader);
                 break;
             case SSTableConstants.BLOOMFILTER_SECTION_NAME_STRING:
                 loadBloomFilter(sstableAccessFile, sectionHeader);
                 break;
+            case SSTableConstants.BLOCKED_BLOOMFILTER_SECTION_NAME_STRING:
+                loadBlockedBloomFilter(sstableAccessFile, sectionHeader);
+                break;
+            case SSTableConstants.PREFIX_BLOOMFILTER_SECTION_NAME_STRING:
+                loadPrefixBloomFilter(sstableAccessFile, sectionHeader);
+                break;
             case SSTableConstants.SUMMARY_SECTION_NAME_STRING:
                 loadSummary(sstableAccessFile, sectionHeader);
                 break;
+            case SSTableConstants.RANGE_TOMBSTONE_SECTION_NAME_STRING:
+                loadRangeTombstones(sstableAccessFile, sectionHeader);
+                break;
             default:
                 LOGGER.warn("Unknown section: {}, bypass it", sectionHeader.getNameString());
                 bypassSection(sstableAccessFile, sectionHeader);
@@ -120,44 +432,133 @@ public class SSTable implements AutoCloseable, Iterable<Pair<String, String>> {
         filter = BloomFilter.readFrom(inputStream, Funnels.stringFunnel(StandardCharsets.UTF_8));
     }
 
-    private void loadIndex(RandomAccessFile sstableAccessFile, SSTableSectionHeader sectionHeader) throws IOException {
-        if (sectionHeader.getSize() != 0)
-            throw new BadSSTableException("The index table is not supported yet");
+    private void loadBlockedBloomFilter(RandomAccessFile sstableAccessFile, SSTableSectionHeader sectionHeader) throws IOException {
+        byte[] content = new byte[(int)sectionHeader.getSize()];
+        sstableAccessFile.readFully(content);
+        blockedFilter = BlockedBloomFilter.readFrom(ByteBuffer.wrap(content));
+    }
+
+    private void loadPrefixBloomFilter(RandomAccessFile sstableAccessFile, SSTableSectionHeader sectionHeader) throws IOException {
+        byte[] content = new byte[(int)sectionHeader.getSize()];
+        sstableAccessFile.readFully(content);
+        prefixFilter = BlockedBloomFilter.readFrom(ByteBuffer.wrap(content));
+    }
+
+    private SSTableIndex loadIndex() throws IOException {
+        if (indexSectionHeader == null || (indexSectionHeader.getSize() == 0 && dataSize > 0))
+            return buildLegacyIndex();
+
+        if (indexSectionHeader.getSize() == 0)
+            return new SSTableIndex();
+
+        ByteBuffer buffer = ByteBuffer.allocate((int)indexSectionHeader.getSize());
+        readFully(buffer, indexSectionHeader.getContentOffset());
+        return SSTableIndex.load(new DataInputStream(new ByteArrayInputStream(buffer.array())));
     }
 
     private void loadSummary(RandomAccessFile sstableAccessFile, SSTableSectionHeader sectionHeader) throws IOException {
         ObjectMapper objectMapper = new ObjectMapper();
         SSTableSummaryInfo summary = (SSTableSummaryInfo)objectMapper.readValue(sstableAccessFile, SSTableSummaryInfo.class);
         nItems = summary.getDataItems();
+        nDeletedItems = summary.getDeletedItems();
+        minSequence = summary.getMinSequence();
+        maxSequence = summary.getMaxSequence();
+        level = summary.getLevel();
+        minKey = summary.getMinKey();
+        maxKey = summary.getMaxKey();
+        compression = BlockCompression.fromName(summary.getCompression());
+        restartInterval = summary.getRestartInterval();
+        // The table keeps the extractor it was written with, which stays valid when the configuration changes
+        prefixExtractor = PrefixExtractor.fromName(summary.getPrefixExtractor());
+    }
+
+    private void loadRangeTombstones(RandomAccessFile sstableAccessFile, SSTableSectionHeader sectionHeader) throws IOException {
+        byte[] content = new byte[(int)sectionHeader.getSize()];
+        sstableAccessFile.readFully(content);
+
+        List<RangeTombstone> tombstones = new ArrayList<>();
+        if (minorVersion >= SSTableDescriptor.MINOR_VER_VARINT_RECORDS) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                Pair<String, String> range = KeyValuePairCoder.unpackV2(buffer);
+                tombstones.add(new RangeTombstone(range.getKey(), range.getValue()));
+            }
+        } else {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(content));
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                Pair<String, String> range = KeyValuePairCoder.unpack((DataInput) input);
+                tombstones.add(new RangeTombstone(range.getKey(), range.getValue()));
+            }
+        }
+        rangeTombstones = RangeTombstoneSet.of(tombstones);
     }
 
     private void loadData(RandomAccessFile sstableAccessFile, SSTableSectionHeader sectionHeader) throws IOException {
-        long sectionEndPos = sstableAccessFile.getFilePointer() + sectionHeader.getSize();
+        dataOffset = sectionHeader.getContentOffset();
+        dataSize = sectionHeader.getSize();
+        bypassSection(sstableAccessFile, sectionHeader);
+    }
 
-        InputStream inputStream = Channels.newInputStream(sstableAccessFile.getChannel());
+    private SSTableIndex buildLegacyIndex() {
+        LOGGER.info("SSTable {} has no block index, build it from the data section", file.getAbsolutePath());
+
+        if (mappedData == null)
+            throw new BadSSTableException("The data section of " + file.getAbsolutePath() + " is too large to build the index");
+
+        SSTableIndex legacyIndex = new SSTableIndex();
+        ByteBuffer buffer = mappedData.duplicate();
 
-        while (sstableAccessFile.getFilePointer() < sectionEndPos) {
-            long currentPos = sstableAccessFile.getFilePointer();
-            Pair<String, String> keyValuePair = KeyValuePairCoder.unpack(inputStream);
-            index.put(keyValuePair.getKey(), currentPos);
+        int blockStart = 0;
+        String blockFirstKey = null;
+        try {
+            while (buffer.hasRemaining()) {
+                int recordStart = buffer.position();
+                int keyLength = buffer.getShort();
+                if (keyLength <= 0)
+                    throw new BadSSTableException("The key length is <= 0");
+                if (blockFirstKey == null) {
+                    blockFirstKey = KeyValuePairCoder.decodeString(buffer, recordStart + Short.BYTES, keyLength);
+                    blockStart = recordStart;
+                }
+                buffer.position(buffer.position() + keyLength);
+                int valueLength = buffer.getInt();
+                if (valueLength > 0)
+                    buffer.position(buffer.position() + valueLength);
+
+                if (buffer.position() - blockStart >= SSTableConstants.DEFAULT_BLOCK_SIZE) {
+                    legacyIndex.add(blockFirstKey, dataOffset + blockStart, buffer.position() - blockStart);
+                    blockFirstKey = null;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new BadSSTableException("The position is misaligned after reading the sstable data", e);
         }
+        if (blockFirstKey != null)
+            legacyIndex.add(blockFirstKey, dataOffset + blockStart, buffer.position() - blockStart);
 
-        assert sstableAccessFile.getFilePointer() == sectionEndPos;
-        if (sstableAccessFile.getFilePointer() != sectionEndPos)
-            throw new BadSSTableException("The position is misaligned after reading the sstable data");
+        return legacyIndex;
     }
 
+    /**
+     * Closes the table and unmaps its data section right away. The caller has to make sure that nobody
+     * still reads the table, a read of a released mapping crashes the JVM.
+     */
     @Override
     public void close() throws Exception {
+        if (blockCache != null)
+            blockCache.invalidate(tableId);
+
+        MappedByteBuffer mapping = mappedData;
+        mappedData = null;
+        DirectBuffers.release(mapping);
+
         sstableAccessFile.close();
     }
 
     @Override
     public Iterator<Pair<String, String>> iterator() {
-        try {
-            return new SSTableDataIterator(file);
-        } catch (IOException e) {
-            return null;
-        }
+        return iterator(null, null);
     }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
+import org.netium.server.storageengine.lsm.utils.VarInt;
+import org.netium.util.Pair;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A data block of an SSTable. A block written with a restart interval has prefix-compressed keys and the
+ * restart point trailer of SSTableBlockBuilder, a block without one is a plain sequence of
+ * KeyValuePairCoder records.
+ *
+ * The block is decoded in place: the keys are compared as UTF-8 bytes and a String is only built for an
+ * item returned to the caller.
+ */
+public final class SSTableBlock {
+    private final ByteBuffer data;
+    private final boolean prefixCompressed;
+    private final int nRestarts;
+    private final int restartsOffset;
+
+    public SSTableBlock(byte[] data) {
+        this(data, 0);
+    }
+
+    public SSTableBlock(byte[] data, int restartInterval) {
+        this(wrap(data), restartInterval);
+    }
+
+    public SSTableBlock(ByteBuffer data, int restartInterval) {
+        if (data == null)
+            throw new IllegalArgumentException("The data is null");
+        if (restartInterval < 0)
+            throw new IllegalArgumentException("The restartInterval is < 0");
+
+        this.data = data.slice();
+        this.prefixCompressed = restartInterval > 0;
+        int size = this.data.limit();
+        if (prefixCompressed) {
+            if (size < Integer.BYTES)
+                throw new BadSSTableException("The block is too short to have the restart points");
+            nRestarts = this.data.getInt(size - Integer.BYTES);
+            restartsOffset = size - (nRestarts + 1) * Integer.BYTES;
+            if (nRestarts < 0 || restartsOffset < 0)
+                throw new BadSSTableException("The restart points of the block are corrupted");
+        } else {
+            nRestarts = 0;
+            restartsOffset = size;
+        }
+    }
+
+    private static ByteBuffer wrap(byte[] data) {
+        if (data == null)
+            throw new IllegalArgumentException("The data is null");
+        return ByteBuffer.wrap(data);
+    }
+
+    public int getSize() {
+        return data.limit();
+    }
+
+    public Pair<String, String> find(String key) {
+        ByteBuffer target = ByteBuffer.wrap(KeyValuePairCoder.encodeString(key));
+        Cursor cursor = new Cursor(seekRestart(target));
+        while (cursor.advance()) {
+            int cmp = cursor.compareKey(target);
+            if (cmp == 0)
+                return cursor.toPair();
+            if (cmp > 0)
+                return null;
+        }
+        return null;
+    }
+
+    public String getLastKey() {
+        Cursor cursor = new Cursor(nRestarts > 0 ? restartOffset(nRestarts - 1) : 0);
+        boolean found = false;
+        while (cursor.advance()) {
+            found = true;
+        }
+        return found ? cursor.keyString() : null;
+    }
+
+    /**
+     * Iterates the items with key >= startKey, a null startKey starts from the first item.
+     */
+    public Iterator<Pair<String, String>> iterator(String startKey) {
+        if (startKey == null)
+            return new BlockIterator(0, null);
+
+        ByteBuffer target = ByteBuffer.wrap(KeyValuePairCoder.encodeString(startKey));
+        return new BlockIterator(seekRestart(target), target);
+    }
+
+    /**
+     * Returns the offset of the last restart point whose key is not greater than the target, the scan for
+     * the target starts from there.
+     */
+    private int seekRestart(ByteBuffer target) {
+        if (!prefixCompressed || nRestarts == 0)
+            return 0;
+
+        int low = 0;
+        int high = nRestarts - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (compareRestartKey(mid, target) <= 0)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return restartOffset(low);
+    }
+
+    private int restartOffset(int restart) {
+        return data.getInt(restartsOffset + restart * Integer.BYTES);
+    }
+
+    private int compareRestartKey(int restart, ByteBuffer target) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(restartOffset(restart));
+        if (VarInt.read(buffer) != 0)
+            throw new BadSSTableException("The key at a restart point is prefix-compressed");
+        int keyLength = VarInt.read(buffer);
+        VarInt.read(buffer);
+        return KeyValuePairCoder.compareEncoded(data, buffer.position(), keyLength, target, 0, target.limit());
+    }
+
+    /**
+     * Decodes the entries one by one. A plain key is referenced in the block, a prefix-compressed key is
+     * rebuilt in a buffer reused for the whole scan.
+     */
+    private final class Cursor {
+        private final ByteBuffer buffer = data.duplicate();
+        private byte[] keyBuf;
+        private ByteBuffer keyBufView;
+
+        private ByteBuffer keySource;
+        private int keyOffset;
+        private int keyLength;
+        private int valueOffset;
+        private int valueLength;
+
+        Cursor(int offset) {
+            buffer.position(offset);
+            buffer.limit(restartsOffset);
+            if (prefixCompressed) {
+                keyBuf = new byte[64];
+                keyBufView = ByteBuffer.wrap(keyBuf);
+            }
+        }
+
+        boolean advance() {
+            if (!buffer.hasRemaining())
+                return false;
+
+            try {
+                if (prefixCompressed)
+                    readPrefixCompressed();
+                else
+                    readPlain();
+                return true;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new BadSSTableException("The block is truncated", e);
+            }
+        }
+
+        private void readPrefixCompressed() {
+            int shared = VarInt.read(buffer);
+            int unshared = VarInt.read(buffer);
+            valueLength = VarInt.read(buffer) - 1;
+
+            keyLength = shared + unshared;
+            if (keyLength > keyBuf.length) {
+                byte[] newKeyBuf = new byte[Math.max(keyLength, keyBuf.length * 2)];
+                System.arraycopy(keyBuf, 0, newKeyBuf, 0, shared);
+                keyBuf = newKeyBuf;
+                keyBufView = ByteBuffer.wrap(keyBuf);
+            }
+            buffer.get(keyBuf, shared, unshared);
+            keySource = keyBufView;
+            keyOffset = 0;
+
+            valueOffset = buffer.position();
+            if (valueLength > 0)
+                buffer.position(valueOffset + valueLength);
+        }
+
+        private void readPlain() {
+            keyLength = buffer.getShort();
+            if (keyLength <= 0)
+                throw new BadSSTableException("The key length is <= 0");
+            keySource = data;
+            keyOffset = buffer.position();
+            buffer.position(keyOffset + keyLength);
+
+            valueLength = buffer.getInt();
+            valueOffset = buffer.position();
+            if (valueLength > 0)
+                buffer.position(valueOffset + valueLength);
+        }
+
+        int compareKey(ByteBuffer target) {
+            return KeyValuePairCoder.compareEncoded(keySource, keyOffset, keyLength, target, 0, target.limit());
+        }
+
+        String keyString() {
+            return KeyValuePairCoder.decodeString(keySource, keyOffset, keyLength);
+        }
+
+        Pair<String, String> toPair() {
+            String value = valueLength < 0 ? null : KeyValuePairCoder.decodeString(data, valueOffset, valueLength);
+            return new Pair<>(keyString(), value);
+        }
+    }
+
+    private final class BlockIterator implements Iterator<Pair<String, String>> {
+        private final Cursor cursor;
+        private boolean hasNext;
+
+        BlockIterator(int offset, ByteBuffer startKey) {
+            cursor = new Cursor(offset);
+            hasNext = cursor.advance();
+            while (hasNext && startKey != null && cursor.compareKey(startKey) < 0) {
+                hasNext = cursor.advance();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public Pair<String, String> next() {
+            if (!hasNext)
+                throw new NoSuchElementException();
+
+            Pair<String, String> item = cursor.toPair();
+            hasNext = cursor.advance();
+            return item;
+        }
+    }
+}
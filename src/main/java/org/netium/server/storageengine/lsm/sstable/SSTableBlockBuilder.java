@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
+import org.netium.server.storageengine.lsm.utils.VarInt;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Builds a data block with prefix-compressed keys. Every entry is the length of the prefix shared with the
+ * previous key, the length of the rest of the key and the value length plus one (zero for a tombstone) as
+ * varints, followed by the rest of the key and the value. Every restartInterval entries the full key is
+ * stored, the offsets of these restart points and their count are appended as ints when the block is
+ * finished, so a lookup can binary search them.
+ */
+final class SSTableBlockBuilder {
+    private final int restartInterval;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private int[] restarts = new int[16];
+    private int nRestarts = 0;
+    private int counter = 0;
+    private byte[] previousKey = new byte[0];
+
+    SSTableBlockBuilder(int restartInterval) {
+        if (restartInterval <= 0)
+            throw new IllegalArgumentException("The restartInterval is <= 0");
+        this.restartInterval = restartInterval;
+    }
+
+    void add(String key, String value) {
+        byte[] keyBytes = KeyValuePairCoder.encodeString(key);
+        byte[] valueBytes = KeyValuePairCoder.encodeString(value);
+
+        int shared = 0;
+        if (counter < restartInterval) {
+            int length = Math.min(previousKey.length, keyBytes.length);
+            while (shared < length && previousKey[shared] == keyBytes[shared])
+                shared++;
+        } else {
+            counter = 0;
+        }
+        if (counter == 0) {
+            if (nRestarts == restarts.length)
+                restarts = Arrays.copyOf(restarts, nRestarts * 2);
+            restarts[nRestarts++] = buffer.size();
+        }
+
+        VarInt.write(shared, buffer);
+        VarInt.write(keyBytes.length - shared, buffer);
+        VarInt.write(valueBytes == null ? 0 : valueBytes.length + 1, buffer);
+        buffer.write(keyBytes, shared, keyBytes.length - shared);
+        if (valueBytes != null)
+            buffer.write(valueBytes, 0, valueBytes.length);
+
+        previousKey = keyBytes;
+        counter++;
+    }
+
+    boolean isEmpty() {
+        return buffer.size() == 0;
+    }
+
+    /**
+     * The size of the block if it is finished now.
+     */
+    int size() {
+        return buffer.size() + (nRestarts + 1) * Integer.BYTES;
+    }
+
+    byte[] finish() {
+        for (int i = 0; i < nRestarts; i++)
+            writeInt(restarts[i]);
+        writeInt(nRestarts);
+        return buffer.toByteArray();
+    }
+
+    void reset() {
+        buffer.reset();
+        nRestarts = 0;
+        counter = 0;
+        previousKey = new byte[0];
+    }
+
+    private void writeInt(int value) {
+        buffer.write(value >>> 24);
+        buffer.write(value >>> 16);
+        buffer.write(value >>> 8);
+        buffer.write(value);
+    }
+}
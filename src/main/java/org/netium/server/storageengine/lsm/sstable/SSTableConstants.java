@@ -24,11 +24,24 @@ public final class SSTableConstants {
     public static final String BLOOMFILTER_SECTION_NAME_STRING = "BLM";
     public static final byte[] BLOOMFILTER_SECTION_NAME_BYTES = BLOOMFILTER_SECTION_NAME_STRING.getBytes(SECTION_HEADER_CHARSET);
 
+    public static final String BLOCKED_BLOOMFILTER_SECTION_NAME_STRING = "BBF";
+    public static final byte[] BLOCKED_BLOOMFILTER_SECTION_NAME_BYTES = BLOCKED_BLOOMFILTER_SECTION_NAME_STRING.getBytes(SECTION_HEADER_CHARSET);
+
+    public static final String PREFIX_BLOOMFILTER_SECTION_NAME_STRING = "PBF";
+    public static final byte[] PREFIX_BLOOMFILTER_SECTION_NAME_BYTES = PREFIX_BLOOMFILTER_SECTION_NAME_STRING.getBytes(SECTION_HEADER_CHARSET);
+
     public static final String INDEX_SECTION_NAME_STRING = "IDX";
     public static final byte[] INDEX_SECTION_NAME_BYTES = INDEX_SECTION_NAME_STRING.getBytes(SECTION_HEADER_CHARSET);
 
     public static final String SUMMARY_SECTION_NAME_STRING = "SUM";
     public static final byte[] SUMMARY_SECTION_NAME_BYTES = SUMMARY_SECTION_NAME_STRING.getBytes(SECTION_HEADER_CHARSET);
 
+    public static final String RANGE_TOMBSTONE_SECTION_NAME_STRING = "RTS";
+    public static final byte[] RANGE_TOMBSTONE_SECTION_NAME_BYTES = RANGE_TOMBSTONE_SECTION_NAME_STRING.getBytes(SECTION_HEADER_CHARSET);
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+    public static final int DEFAULT_RESTART_INTERVAL = 16;
+    public static final double DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
     private SSTableConstants() {}
 }
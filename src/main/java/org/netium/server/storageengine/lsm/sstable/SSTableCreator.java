@@ -13,33 +13,62 @@
 package org.netium.server.storageengine.lsm.sstable;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
+import org.netium.server.storageengine.lsm.utils.IoRateLimiter;
 import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
 import org.netium.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.channels.Channels;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
 
 public final class SSTableCreator implements AutoCloseable {
     private final Logger logger = LoggerFactory.getLogger(SSTableCreator.class);
 
     private SSTableCreatorState state;
 
-    private final BloomFilter<String> filter;
+    private long[] keyHashes;
+    private PrefixExtractor prefixExtractor = null;
+    private long[] prefixHashes = new long[16];
+    private int nPrefixes = 0;
+    private String previousPrefix = null;
+    private double bloomFilterFalsePositiveRate = SSTableConstants.DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE;
     private final File file;
     private RandomAccessFile sstable;
     private final SSTableSectionHeader dataSectionHeader;
     private int nDataItems = 0;
+    private int nDeletedItems = 0;
+    private long minSequence = 0;
+    private long maxSequence = 0;
+
+    private final int blockSize;
+    private final SSTableIndex index = new SSTableIndex();
+    private int restartInterval = SSTableConstants.DEFAULT_RESTART_INTERVAL;
+    private SSTableBlockBuilder blockBuilder = null;
+    private String blockFirstKey = null;
 
     private String previousKey = "";
+    private String firstKey = null;
+    private int level = 0;
+    private IoRateLimiter rateLimiter = null;
+    private BlockCompression compression = BlockCompression.NONE;
+    private Deflater deflater = null;
+    private final List<RangeTombstone> rangeTombstones = new ArrayList<>();
 
     public SSTableCreator(File targetFile, int approxItems) throws IOException {
+        this(targetFile, approxItems, SSTableConstants.DEFAULT_BLOCK_SIZE);
+    }
+
+    public SSTableCreator(File targetFile, int approxItems, int blockSize) throws IOException {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("The blockSize is <= 0");
+
         this.file = targetFile;
-        filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), approxItems, 0.1);
+        this.blockSize = blockSize;
+        keyHashes = new long[Math.max(16, Math.min(approxItems, 1024 * 1024))];
         sstable = new RandomAccessFile(file, "rw");
         SSTableDescriptor.writeSSTableDescriptor(sstable);
         dataSectionHeader = new SSTableSectionHeader(SSTableConstants.DATA_SECTION_NAME_BYTES, sstable.getFilePointer(), 0);
@@ -60,43 +89,223 @@ public final class SSTableCreator implements AutoCloseable {
         if (key.compareTo(previousKey) <= 0)
             throw new IllegalArgumentException("The ascending key order is not hold");
         previousKey = key;
+        if (firstKey == null)
+            firstKey = key;
 
-        int nbytes = KeyValuePairCoder.pack(keyValuePair, sstable);
-        dataSectionHeader.setSize(dataSectionHeader.getSize() + nbytes);
+        if (blockFirstKey == null)
+            blockFirstKey = key;
+
+        if (blockBuilder == null)
+            blockBuilder = new SSTableBlockBuilder(restartInterval);
+        blockBuilder.add(key, keyValuePair.getValue());
         nDataItems++;
+        if (keyValuePair.getValue() == null)
+            nDeletedItems++;
+
+        if (nDataItems > keyHashes.length)
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        keyHashes[nDataItems - 1] = BlockedBloomFilter.hash(key);
+        if (prefixExtractor != null)
+            addPrefix(prefixExtractor.extract(key));
+
+        if (blockBuilder.size() >= blockSize)
+            flushBlock();
+    }
+
+    /**
+     * Adds a range tombstone which deletes the keys in the older SSTables, the tombstones may be added in
+     * any order before the creator is closed.
+     */
+    public void addRangeTombstone(RangeTombstone rangeTombstone) {
+        if (state != SSTableCreatorState.DATA_WRITING)
+            throw new BadSSTableException("The sstable is not in data writing status");
+        if (rangeTombstone == null)
+            throw new IllegalArgumentException("The rangeTombstone is null");
+
+        rangeTombstones.add(rangeTombstone);
+    }
+
+    public void setLevel(int level) {
+        if (level < 0)
+            throw new IllegalArgumentException("The level is < 0");
+        this.level = level;
+    }
+
+    public void setCompression(BlockCompression compression) {
+        if (compression == null)
+            throw new IllegalArgumentException("The compression is null");
+        if (nDataItems > 0)
+            throw new BadSSTableException("The compression must be set before writing data");
+        this.compression = compression;
+    }
+
+    /**
+     * Sets how many keys are prefix-compressed against their previous key before a full key is stored.
+     */
+    public void setRestartInterval(int restartInterval) {
+        if (restartInterval <= 0)
+            throw new IllegalArgumentException("The restartInterval is <= 0");
+        if (nDataItems > 0)
+            throw new BadSSTableException("The restartInterval must be set before writing data");
+        this.restartInterval = restartInterval;
+    }
+
+    /**
+     * Sets the range of the sequences of the writes in the table, zero means unknown.
+     */
+    public void setSequenceRange(long minSequence, long maxSequence) {
+        if (minSequence < 0 || maxSequence < minSequence)
+            throw new IllegalArgumentException("The sequence range [" + minSequence + ", " + maxSequence + "] is invalid");
+        this.minSequence = minSequence;
+        this.maxSequence = maxSequence;
+    }
+
+    /**
+     * Sets the extractor of the key prefixes added to the prefix bloom filter, null writes no prefix filter.
+     */
+    public void setPrefixExtractor(PrefixExtractor prefixExtractor) {
+        if (nDataItems > 0)
+            throw new BadSSTableException("The prefixExtractor must be set before writing data");
+        this.prefixExtractor = prefixExtractor;
+    }
+
+    public void setBloomFilterFalsePositiveRate(double bloomFilterFalsePositiveRate) {
+        if (bloomFilterFalsePositiveRate <= 0 || bloomFilterFalsePositiveRate >= 1)
+            throw new IllegalArgumentException("The bloomFilterFalsePositiveRate must be in (0, 1)");
+        this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    }
+
+    public void setRateLimiter(IoRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public int getNumOfItems() {
+        return nDataItems;
+    }
 
-        filter.put(key);
+    public long getDataSize() {
+        return dataSectionHeader.getSize() + (blockBuilder == null ? 0 : blockBuilder.size());
     }
 
     public void close() throws IOException {
+        flushBlock();
         dataSectionHeader.writeByOffset(sstable);
 
+        flushIndex();
         flushBloomFilter();
+        flushPrefixBloomFilter();
+        flushRangeTombstones();
         flushSummary();
 
         sstable.close();
+        if (deflater != null)
+            deflater.end();
         state = SSTableCreatorState.CLOSED;
     }
 
+    private void flushBlock() throws IOException {
+        if (blockBuilder == null || blockBuilder.isEmpty())
+            return;
+
+        if (compression != BlockCompression.NONE && deflater == null)
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] rawBlock = blockBuilder.finish();
+        byte[] block = compression.compress(rawBlock, rawBlock.length, deflater);
+
+        if (rateLimiter != null)
+            rateLimiter.acquire(block.length);
+
+        long blockOffset = sstable.getFilePointer();
+        sstable.write(block);
+        index.add(blockFirstKey, blockOffset, block.length);
+        dataSectionHeader.setSize(dataSectionHeader.getSize() + block.length);
+
+        blockBuilder.reset();
+        blockFirstKey = null;
+    }
+
+    private void flushIndex() throws IOException {
+        SSTableSectionHeader indexSectionHeader = new SSTableSectionHeader(
+                SSTableConstants.INDEX_SECTION_NAME_BYTES,
+                sstable.getFilePointer(),
+                0
+        );
+        indexSectionHeader.write(sstable);
+
+        int nbytes = index.write(sstable);
+
+        indexSectionHeader.setSize(nbytes);
+        indexSectionHeader.writeByOffset(sstable);
+    }
+
     private void flushBloomFilter() throws IOException {
         SSTableSectionHeader bloomFilterSectionHeader = new SSTableSectionHeader(
-                SSTableConstants.BLOOMFILTER_SECTION_NAME_BYTES,
+                SSTableConstants.BLOCKED_BLOOMFILTER_SECTION_NAME_BYTES,
                 sstable.getFilePointer(),
                 0
         );
-
         bloomFilterSectionHeader.write(sstable);
-        long bloomFilterDataOffset = sstable.getFilePointer();
-
-        filter.writeTo(Channels.newOutputStream(sstable.getChannel()));
-        long bloomFilterDataEndOffset = sstable.getFilePointer();
 
-        long bloomFilterDataSize = bloomFilterDataEndOffset - bloomFilterDataOffset;
+        // The filter is sized by the number of keys actually written, which excludes the duplicates merged
+        // away by a compaction
+        BlockedBloomFilter filter = BlockedBloomFilter.create(keyHashes, nDataItems, bloomFilterFalsePositiveRate);
+        int nbytes = filter.writeTo(sstable);
 
-        bloomFilterSectionHeader.setSize(bloomFilterDataSize);
+        bloomFilterSectionHeader.setSize(nbytes);
         bloomFilterSectionHeader.writeByOffset(sstable);
     }
 
+    private void addPrefix(String prefix) {
+        // The keys sharing a prefix are adjacent, so comparing with the previous prefix removes the duplicates
+        if (prefix == null || prefix.equals(previousPrefix))
+            return;
+        previousPrefix = prefix;
+
+        if (nPrefixes == prefixHashes.length)
+            prefixHashes = Arrays.copyOf(prefixHashes, prefixHashes.length * 2);
+        prefixHashes[nPrefixes++] = BlockedBloomFilter.hash(prefix);
+    }
+
+    private void flushPrefixBloomFilter() throws IOException {
+        if (prefixExtractor == null)
+            return;
+
+        SSTableSectionHeader prefixBloomFilterSectionHeader = new SSTableSectionHeader(
+                SSTableConstants.PREFIX_BLOOMFILTER_SECTION_NAME_BYTES,
+                sstable.getFilePointer(),
+                0
+        );
+        prefixBloomFilterSectionHeader.write(sstable);
+
+        BlockedBloomFilter filter = BlockedBloomFilter.create(prefixHashes, nPrefixes, bloomFilterFalsePositiveRate);
+        int nbytes = filter.writeTo(sstable);
+
+        prefixBloomFilterSectionHeader.setSize(nbytes);
+        prefixBloomFilterSectionHeader.writeByOffset(sstable);
+    }
+
+    private void flushRangeTombstones() throws IOException {
+        if (rangeTombstones.isEmpty())
+            return;
+
+        SSTableSectionHeader rangeTombstoneSectionHeader = new SSTableSectionHeader(
+                SSTableConstants.RANGE_TOMBSTONE_SECTION_NAME_BYTES,
+                sstable.getFilePointer(),
+                0
+        );
+        rangeTombstoneSectionHeader.write(sstable);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new DataOutputStream(buffer).writeInt(rangeTombstones.size());
+        for (RangeTombstone rangeTombstone : rangeTombstones) {
+            KeyValuePairCoder.packV2(new Pair<>(rangeTombstone.getStartKey(), rangeTombstone.getEndKey()), buffer);
+        }
+        sstable.write(buffer.toByteArray());
+
+        rangeTombstoneSectionHeader.setSize(buffer.size());
+        rangeTombstoneSectionHeader.writeByOffset(sstable);
+    }
+
     private void flushSummary() throws IOException {
         SSTableSectionHeader summarySectionHeader = new SSTableSectionHeader(
                 SSTableConstants.SUMMARY_SECTION_NAME_BYTES,
@@ -109,6 +318,27 @@ public final class SSTableCreator implements AutoCloseable {
 
         SSTableSummaryInfo summary = new SSTableSummaryInfo();
         summary.setDataItems(nDataItems);
+        summary.setDeletedItems(nDeletedItems);
+        summary.setRangeTombstoneItems(rangeTombstones.size());
+        summary.setMinSequence(minSequence);
+        summary.setMaxSequence(maxSequence);
+        summary.setLevel(level);
+        summary.setCompression(compression.getName());
+        summary.setRestartInterval(restartInterval);
+        if (prefixExtractor != null)
+            summary.setPrefixExtractor(prefixExtractor.getName());
+        // The key range includes the range tombstones, the exclusive end key of a tombstone is kept as the
+        // max key so that the range errs on the safe side
+        String minKey = firstKey;
+        String maxKey = firstKey == null ? null : previousKey;
+        for (RangeTombstone rangeTombstone : rangeTombstones) {
+            if (minKey == null || rangeTombstone.getStartKey().compareTo(minKey) < 0)
+                minKey = rangeTombstone.getStartKey();
+            if (maxKey == null || rangeTombstone.getEndKey().compareTo(maxKey) > 0)
+                maxKey = rangeTombstone.getEndKey();
+        }
+        summary.setMinKey(minKey);
+        summary.setMaxKey(maxKey);
 
         ObjectMapper mapper = new ObjectMapper();
         mapper.writeValue(sstable, summary);
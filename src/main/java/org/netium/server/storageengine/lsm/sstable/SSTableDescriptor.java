@@ -18,27 +18,47 @@ import java.nio.charset.StandardCharsets;
 public class SSTableDescriptor {
     private final static byte[] MAGIC = "ZEUSSSTABLE".getBytes(StandardCharsets.US_ASCII);
 
+    // 1.0 stores the range tombstones with fixed-width lengths, 1.1 stores them with varint lengths.
+    // The data section of a 1.0 table has three layouts, which the summary tells apart:
+    //  - no compression and no restartInterval: plain records with fixed-width lengths
+    //  - a compression but no restartInterval: the same records, compressed block by block
+    //  - a restartInterval: prefix-compressed blocks with restart points, compressed if a compression is set
+    // A 1.1 table always has a restartInterval.
+    public final static int MINOR_VER_FIXED_WIDTH_RECORDS = 0;
+    public final static int MINOR_VER_VARINT_RECORDS = 1;
+
     private final static byte MAJOR_VER = 1;
-    private final static byte MINOR_VER = 0;
+    private final static byte MINOR_VER = MINOR_VER_VARINT_RECORDS;
 
     private final static int DESCRIPTOR_SIZE = MAGIC.length + Byte.BYTES + Byte.BYTES; // Magic + majorVer + minorVer
 
     public static boolean isValidDescriptor(DataInput dataInput) throws IOException {
+        return readMinorVersion(dataInput) >= 0;
+    }
+
+    public static boolean isValidDescriptor(byte[] buf, int start) {
+        return readMinorVersion(buf, start) >= 0;
+    }
+
+    /**
+     * Reads the descriptor and returns its minor version, or -1 if it is not a descriptor of a version
+     * this reader understands.
+     */
+    public static int readMinorVersion(DataInput dataInput) throws IOException {
         if (dataInput == null)
             throw new IllegalArgumentException("The dataInput is null");
 
         for (int i = 0; i < MAGIC.length; i++) {
             if (dataInput.readByte() != MAGIC[i])
-                return false;
+                return -1;
         }
 
-        if (dataInput.readByte() != MAJOR_VER) return false;
-        if (dataInput.readByte() != MINOR_VER) return false;
-
-        return true;
+        byte majorVer = dataInput.readByte();
+        byte minorVer = dataInput.readByte();
+        return isSupportedVersion(majorVer, minorVer) ? minorVer : -1;
     }
 
-    public static boolean isValidDescriptor(byte[] buf, int start) {
+    public static int readMinorVersion(byte[] buf, int start) {
         if (buf == null)
             throw new IllegalArgumentException("The buf is null");
 
@@ -47,13 +67,16 @@ public class SSTableDescriptor {
 
         for (int i = 0; i < MAGIC.length; i++) {
             if (buf[start++] != MAGIC[i])
-                return false;
+                return -1;
         }
 
-        if (buf[start++] != MAJOR_VER) return false;
-        if (buf[start++] != MINOR_VER) return false;
+        byte majorVer = buf[start++];
+        byte minorVer = buf[start++];
+        return isSupportedVersion(majorVer, minorVer) ? minorVer : -1;
+    }
 
-        return true;
+    private static boolean isSupportedVersion(byte majorVer, byte minorVer) {
+        return majorVer == MAJOR_VER && minorVer >= MINOR_VER_FIXED_WIDTH_RECORDS && minorVer <= MINOR_VER;
     }
 
     public static int writeSSTableDescriptor(DataOutput dataOutput) throws IOException {
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The sparse index of the data section, one entry (first key, file offset, size) per data block.
+ */
+public final class SSTableIndex {
+    private String[] firstKeys;
+    private long[] offsets;
+    private int[] sizes;
+    private int nBlocks = 0;
+
+    public SSTableIndex() {
+        this(16);
+    }
+
+    private SSTableIndex(int capacity) {
+        firstKeys = new String[capacity];
+        offsets = new long[capacity];
+        sizes = new int[capacity];
+    }
+
+    public void add(String firstKey, long offset, int size) {
+        if (firstKey == null)
+            throw new IllegalArgumentException("The firstKey is null");
+        if (nBlocks > 0 && firstKey.compareTo(firstKeys[nBlocks - 1]) <= 0)
+            throw new IllegalArgumentException("The ascending key order is not hold");
+
+        if (nBlocks == firstKeys.length) {
+            int capacity = nBlocks * 2;
+            firstKeys = Arrays.copyOf(firstKeys, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+
+        firstKeys[nBlocks] = firstKey;
+        offsets[nBlocks] = offset;
+        sizes[nBlocks] = size;
+        nBlocks++;
+    }
+
+    public int size() {
+        return nBlocks;
+    }
+
+    public String getFirstKey(int block) {
+        return firstKeys[block];
+    }
+
+    public long getOffset(int block) {
+        return offsets[block];
+    }
+
+    public int getSize(int block) {
+        return sizes[block];
+    }
+
+    /**
+     * Returns the block which may contain the key, i.e. the last block whose first key is not greater than the key,
+     * or -1 if the key is less than the first key of the table.
+     */
+    public int findBlock(String key) {
+        int pos = Arrays.binarySearch(firstKeys, 0, nBlocks, key);
+        return pos >= 0 ? pos : -pos - 2;
+    }
+
+    public int write(DataOutput dataOutput) throws IOException {
+        int nbytes = 0;
+        dataOutput.writeInt(nBlocks);
+        nbytes += Integer.BYTES;
+
+        for (int i = 0; i < nBlocks; i++) {
+            byte[] keyBuf = KeyValuePairCoder.encodeString(firstKeys[i]);
+            dataOutput.writeShort(keyBuf.length);
+            dataOutput.write(keyBuf);
+            dataOutput.writeLong(offsets[i]);
+            dataOutput.writeInt(sizes[i]);
+            nbytes += Short.BYTES + keyBuf.length + Long.BYTES + Integer.BYTES;
+        }
+
+        return nbytes;
+    }
+
+    public static SSTableIndex load(DataInput dataInput) throws IOException {
+        int nBlocks = dataInput.readInt();
+        if (nBlocks < 0)
+            throw new BadSSTableException("The number of index entries is < 0");
+
+        SSTableIndex index = new SSTableIndex(Math.max(nBlocks, 1));
+        for (int i = 0; i < nBlocks; i++) {
+            short keyLength = dataInput.readShort();
+            if (keyLength <= 0)
+                throw new BadSSTableException("The index key length is <= 0");
+            byte[] keyBuf = new byte[keyLength];
+            dataInput.readFully(keyBuf);
+            long offset = dataInput.readLong();
+            int size = dataInput.readInt();
+            index.add(KeyValuePairCoder.decodeString(keyBuf), offset, size);
+        }
+
+        return index;
+    }
+}
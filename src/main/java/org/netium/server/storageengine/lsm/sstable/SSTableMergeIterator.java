@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.util.Pair;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted readers into one sorted sequence with a heap, so each item costs O(log K) for K readers.
+ * The readers must be ordered from the newest to the oldest: when several readers hold the same key, the
+ * item of the newest one is returned and the others are skipped. Tombstones are returned like any item.
+ */
+public class SSTableMergeIterator implements Iterator<Pair<String, String>> {
+    private final PriorityQueue<Source> queue;
+
+    public SSTableMergeIterator(List<SSTableSequenceReader> readers) {
+        if (readers == null)
+            throw new IllegalArgumentException("The readers is null");
+
+        queue = new PriorityQueue<>(Math.max(readers.size(), 1),
+                Comparator.comparing((Source source) -> source.key).thenComparingInt(source -> source.rank));
+        for (int i = 0; i < readers.size(); i++) {
+            enqueue(new Source(readers.get(i), i));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Pair<String, String> next() {
+        Source source = queue.poll();
+        if (source == null)
+            throw new NoSuchElementException();
+
+        Pair<String, String> item = read(source);
+        enqueue(source);
+
+        while (!queue.isEmpty() && queue.peek().key.equals(item.getKey())) {
+            Source shadowed = queue.poll();
+            read(shadowed);
+            enqueue(shadowed);
+        }
+
+        return item;
+    }
+
+    private void enqueue(Source source) {
+        try {
+            if (source.reader.isEof())
+                return;
+            source.key = source.reader.peekNextKey();
+            queue.add(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Pair<String, String> read(Source source) {
+        try {
+            return source.reader.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Source {
+        private final SSTableSequenceReader reader;
+        private final int rank;
+        private String key;
+
+        Source(SSTableSequenceReader reader, int rank) {
+            this.reader = reader;
+            this.rank = rank;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.server.storageengine.lsm.utils.IoRateLimiter;
+import org.netium.util.Pair;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+class SSTableRangeIterator implements Iterator<Pair<String, String>> {
+    private final SSTable sstable;
+    private final SSTableIndex index;
+    private final String endKey;
+    private final IoRateLimiter rateLimiter;
+
+    private int block;
+    private String blockStartKey;
+    private Iterator<Pair<String, String>> blockIterator = null;
+    private Pair<String, String> nextItem;
+
+    SSTableRangeIterator(SSTable sstable, String startKey, String endKey, IoRateLimiter rateLimiter) {
+        this.sstable = sstable;
+        this.index = sstable.getIndex();
+        this.endKey = endKey;
+        this.rateLimiter = rateLimiter;
+
+        block = startKey == null ? 0 : Math.max(index.findBlock(startKey), 0);
+        blockStartKey = startKey;
+        nextItem = readNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextItem != null;
+    }
+
+    @Override
+    public Pair<String, String> next() {
+        if (nextItem == null)
+            throw new NoSuchElementException();
+
+        Pair<String, String> item = nextItem;
+        nextItem = readNext();
+        return item;
+    }
+
+    private Pair<String, String> readNext() {
+        try {
+            while (blockIterator == null || !blockIterator.hasNext()) {
+                if (block >= index.size())
+                    return null;
+                if (rateLimiter != null)
+                    rateLimiter.acquire(index.getSize(block));
+                // Only the first block is searched for the start key, the following ones are read from the start
+                blockIterator = sstable.readUncachedBlock(block++).iterator(blockStartKey);
+                blockStartKey = null;
+            }
+
+            Pair<String, String> item = blockIterator.next();
+            if (endKey != null && item.getKey().compareTo(endKey) >= 0) {
+                block = index.size();
+                blockIterator = null;
+                return null;
+            }
+            return item;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the SSTable " + sstable.getFile().getAbsolutePath(), e);
+        }
+    }
+}
@@ -14,6 +14,16 @@ package org.netium.server.storageengine.lsm.sstable;
 
 public class SSTableSummaryInfo {
     private long dataItems;
+    private long deletedItems;
+    private long rangeTombstoneItems;
+    private long minSequence;
+    private long maxSequence;
+    private int level;
+    private String minKey;
+    private String maxKey;
+    private String compression;
+    private int restartInterval;
+    private String prefixExtractor;
 
     public long getDataItems() {
         return dataItems;
@@ -22,4 +32,84 @@ public class SSTableSummaryInfo {
     public void setDataItems(long dataItems) {
         this.dataItems = dataItems;
     }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public String getMinKey() {
+        return minKey;
+    }
+
+    public void setMinKey(String minKey) {
+        this.minKey = minKey;
+    }
+
+    public String getMaxKey() {
+        return maxKey;
+    }
+
+    public void setMaxKey(String maxKey) {
+        this.maxKey = maxKey;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    public void setRestartInterval(int restartInterval) {
+        this.restartInterval = restartInterval;
+    }
+
+    public long getDeletedItems() {
+        return deletedItems;
+    }
+
+    public void setDeletedItems(long deletedItems) {
+        this.deletedItems = deletedItems;
+    }
+
+    public long getRangeTombstoneItems() {
+        return rangeTombstoneItems;
+    }
+
+    public void setRangeTombstoneItems(long rangeTombstoneItems) {
+        this.rangeTombstoneItems = rangeTombstoneItems;
+    }
+
+    public long getMinSequence() {
+        return minSequence;
+    }
+
+    public void setMinSequence(long minSequence) {
+        this.minSequence = minSequence;
+    }
+
+    public long getMaxSequence() {
+        return maxSequence;
+    }
+
+    public void setMaxSequence(long maxSequence) {
+        this.maxSequence = maxSequence;
+    }
+
+    public String getPrefixExtractor() {
+        return prefixExtractor;
+    }
+
+    public void setPrefixExtractor(String prefixExtractor) {
+        this.prefixExtractor = prefixExtractor;
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A token bucket limiting the bytes per second of background I/O. The caller takes the tokens before the I/O
+ * and sleeps when the bucket is in debt. The limit is lifted while the bypass condition holds, for example
+ * while there is no foreground traffic to protect.
+ */
+public final class IoRateLimiter {
+    private final static long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long bytesPerSecond;
+    private final BooleanSupplier bypass;
+
+    private double availableBytes = 0;
+    private long lastRefillNanos = System.nanoTime();
+
+    public IoRateLimiter(long bytesPerSecond, BooleanSupplier bypass) {
+        if (bytesPerSecond <= 0)
+            throw new IllegalArgumentException("The bytesPerSecond must be > 0");
+        if (bypass == null)
+            throw new IllegalArgumentException("The bypass is null");
+
+        this.bytesPerSecond = bytesPerSecond;
+        this.bypass = bypass;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void acquire(long bytes) throws InterruptedIOException {
+        if (bytes <= 0 || bypass.getAsBoolean())
+            return;
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            double maxBurstBytes = (double)bytesPerSecond * MAX_BURST_NANOS / TimeUnit.SECONDS.toNanos(1);
+            availableBytes = Math.min(maxBurstBytes,
+                    availableBytes + (double)bytesPerSecond * (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+
+            availableBytes -= bytes;
+            waitNanos = availableBytes >= 0 ? 0 : (long)(-availableBytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the I/O rate limiter");
+            }
+        }
+    }
+}
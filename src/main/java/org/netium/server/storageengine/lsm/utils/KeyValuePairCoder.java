@@ -15,6 +15,7 @@ package org.netium.server.storageengine.lsm.utils;
 import org.netium.util.Pair;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
@@ -108,6 +109,50 @@ public final class KeyValuePairCoder {
         return new Pair<>(key, value);
     }
 
+    /**
+     * Packs the pair in the v2 record format: the key length and the value length plus one (zero for a null
+     * value) as varints, followed by the key and the value. Returns the number of bytes written.
+     */
+    public static int packV2(Pair<String, String> keyValuePair, ByteArrayOutputStream outputStream) {
+        if (keyValuePair == null)
+            throw new IllegalArgumentException("The keyValuePair is null");
+        if (outputStream == null)
+            throw new IllegalArgumentException("The outputStream is null");
+
+        byte[] keyBuf = encodeString(keyValuePair.getKey());
+        byte[] valueBuf = encodeString(keyValuePair.getValue());
+
+        int nbytes = VarInt.write(keyBuf.length, outputStream);
+        nbytes += VarInt.write(valueBuf == null ? 0 : valueBuf.length + 1, outputStream);
+        outputStream.write(keyBuf, 0, keyBuf.length);
+        nbytes += keyBuf.length;
+        if (valueBuf != null) {
+            outputStream.write(valueBuf, 0, valueBuf.length);
+            nbytes += valueBuf.length;
+        }
+        return nbytes;
+    }
+
+    /**
+     * Unpacks a v2 record at the position of the buffer and moves the position after it.
+     */
+    public static Pair<String, String> unpackV2(ByteBuffer buffer) {
+        int keyLength = VarInt.read(buffer);
+        if (keyLength <= 0)
+            throw new NumberFormatException("The key length is <= 0");
+        int valueLength = VarInt.read(buffer) - 1;
+
+        String key = decodeString(buffer, buffer.position(), keyLength);
+        buffer.position(buffer.position() + keyLength);
+
+        String value = null;
+        if (valueLength >= 0) {
+            value = decodeString(buffer, buffer.position(), valueLength);
+            buffer.position(buffer.position() + valueLength);
+        }
+        return new Pair<>(key, value);
+    }
+
     public static byte[] encodeString(String str) {
         if (str == null)
             return null;
@@ -115,6 +160,90 @@ public final class KeyValuePairCoder {
         return str.getBytes(DEFAULT_CHARSET);
     }
 
+    public static int encodedLength(String str) {
+        if (str == null)
+            return 0;
+
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the string as UTF-8 into the buffer at the index without moving its position, unpaired
+     * surrogates are replaced with '?' like String.getBytes(). Returns the number of bytes written.
+     */
+    public static int encodeString(String str, ByteBuffer buffer, int index) {
+        int pos = index;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buffer.put(pos++, (byte)c);
+            } else if (c < 0x800) {
+                buffer.put(pos++, (byte)(0xC0 | (c >> 6)));
+                buffer.put(pos++, (byte)(0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                buffer.put(pos++, (byte)(0xF0 | (codePoint >> 18)));
+                buffer.put(pos++, (byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put(pos++, (byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put(pos++, (byte)(0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(pos++, (byte)'?');
+            } else {
+                buffer.put(pos++, (byte)(0xE0 | (c >> 12)));
+                buffer.put(pos++, (byte)(0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(pos++, (byte)(0x80 | (c & 0x3F)));
+            }
+        }
+        return pos - index;
+    }
+
+    /**
+     * Compares two UTF-8 encoded strings in the order of String.compareTo(). The plain byte order is the
+     * code point order, which only differs from the UTF-16 order for the characters U+E000 to U+FFFF, so
+     * their lead bytes 0xEE and 0xEF are ranked above the lead bytes of the supplementary characters.
+     */
+    public static int compareEncoded(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int x = a.get(aOffset + i) & 0xFF;
+            int y = b.get(bOffset + i) & 0xFF;
+            if (x != y)
+                return rankOf(x) - rankOf(y);
+        }
+        return aLength - bLength;
+    }
+
+    private static int rankOf(int b) {
+        return (b == 0xEE || b == 0xEF) ? b + 0x10 : b;
+    }
+
+    public static String decodeString(ByteBuffer buffer, int index, int length) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + index, length, DEFAULT_CHARSET);
+
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(index);
+        view.get(bytes);
+        return new String(bytes, DEFAULT_CHARSET);
+    }
+
     public static String decodeString(byte[] buffer) {
         if (buffer == null)
             return null;
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a non-negative int in 7-bit groups, the least significant group first and the high bit set on
+ * every byte but the last, so a value below 128 takes one byte.
+ */
+public final class VarInt {
+    public final static int MAX_BYTES = 5;
+
+    private VarInt() {}
+
+    public static int write(int value, ByteArrayOutputStream output) {
+        if (value < 0)
+            throw new IllegalArgumentException("The value is < 0");
+
+        int nbytes = 1;
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            nbytes++;
+        }
+        output.write(value);
+        return nbytes;
+    }
+
+    /**
+     * Reads a varint at the position of the buffer and moves the position after it.
+     */
+    public static int read(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < MAX_BYTES * 7; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new NumberFormatException("The varint is out of range");
+                return value;
+            }
+        }
+        throw new NumberFormatException("The varint is longer than " + MAX_BYTES + " bytes");
+    }
+
+    public static int sizeOf(int value) {
+        int nbytes = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            nbytes++;
+        }
+        return nbytes;
+    }
+}
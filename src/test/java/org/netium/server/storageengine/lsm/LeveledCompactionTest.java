@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.netium.server.configuration.LsmConfiguration;
+import org.netium.server.storageengine.lsm.sstable.RangeTombstone;
+import org.netium.server.storageengine.lsm.sstable.SSTable;
+import org.netium.server.storageengine.lsm.sstable.SSTableCreator;
+import org.netium.util.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class LeveledCompactionTest {
+    private final static String TEST_DB_DIR = "./testdata/compaction/";
+
+    @Before
+    public void cleanupDbFolder() {
+        File dir = new File(TEST_DB_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+
+        for (File file : dir.listFiles(p -> true)) {
+            file.delete();
+        }
+    }
+
+    @After
+    public void removeDbFolder() {
+        File dir = new File(TEST_DB_DIR);
+        for (File file : dir.listFiles(p -> true)) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testNoCompactionBelowTrigger() throws IOException {
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration());
+        List<SSTable> sstables = Arrays.asList(createSSTable(0, new Pair<>("a", "1")));
+
+        Assert.assertNull(strategy.pickCompaction(sstables));
+    }
+
+    @Test
+    public void testLevel0CompactionPicksOverlappingLevel1() throws IOException {
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration());
+        SSTable newest = createSSTable(0, new Pair<>("b", "new"), new Pair<>("c", null));
+        SSTable older = createSSTable(0, new Pair<>("a", "old"), new Pair<>("b", "old"));
+        SSTable overlapping = createSSTable(1, new Pair<>("c", "old"), new Pair<>("d", "old"));
+        SSTable disjoint = createSSTable(1, new Pair<>("x", "old"), new Pair<>("y", "old"));
+
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(newest, older, overlapping, disjoint));
+
+        Assert.assertNotNull(task);
+        Assert.assertEquals(task.getOutputLevel(), 1);
+        Assert.assertEquals(task.getInputs(), Arrays.asList(newest, older, overlapping));
+        Assert.assertTrue(task.canDropTombstones("a", "d"));
+
+        SSTableCompactor compactor = new SSTableCompactor(new File(TEST_DB_DIR), 64, 1024 * 1024, null);
+        List<SSTable> outputs = compactor.compact(task);
+
+        Assert.assertEquals(outputs.size(), 1);
+        SSTable output = outputs.get(0);
+        Assert.assertEquals(output.getLevel(), 1);
+        Assert.assertEquals(output.getMinKey(), "a");
+        Assert.assertEquals(output.getMaxKey(), "d");
+        Assert.assertEquals(output.get("a").getValue(), "old");
+        Assert.assertEquals(output.get("b").getValue(), "new");
+        Assert.assertNull(output.get("c"));
+        Assert.assertEquals(output.get("d").getValue(), "old");
+    }
+
+    @Test
+    public void testTombstonesKeptAboveDeeperLevels() throws IOException {
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration());
+        SSTable newest = createSSTable(0, new Pair<>("a", null));
+        SSTable older = createSSTable(0, new Pair<>("b", "1"));
+        SSTable deeper = createSSTable(2, new Pair<>("a", "1"));
+
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(newest, older, deeper));
+
+        Assert.assertNotNull(task);
+        Assert.assertFalse(task.canDropTombstones("a", "a"));
+        Assert.assertTrue(task.canDropTombstones("b", "b"));
+
+        List<SSTable> outputs = new SSTableCompactor(new File(TEST_DB_DIR), 64, 1024 * 1024, null).compact(task);
+        Assert.assertNotNull(outputs.get(0).get("a"));
+        Assert.assertNull(outputs.get(0).get("a").getValue());
+    }
+
+    @Test
+    public void testOutputsAreSplitByTargetSize() throws IOException {
+        LsmConfiguration configuration = configuration();
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration);
+        List<Pair<String, String>> items = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            items.add(new Pair<>(String.format("key%04d", i), "value" + i));
+        }
+        SSTable first = createSSTable(0, items.subList(0, 120));
+        SSTable second = createSSTable(0, items.subList(80, 200));
+
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(second, first));
+        List<SSTable> outputs = new SSTableCompactor(new File(TEST_DB_DIR), 64, 512, null).compact(task);
+
+        Assert.assertTrue(outputs.size() > 1);
+        long nItems = 0;
+        for (int i = 0; i < outputs.size(); i++) {
+            nItems += outputs.get(i).getNumOfItems();
+            if (i > 0)
+                Assert.assertTrue(outputs.get(i - 1).getMaxKey().compareTo(outputs.get(i).getMinKey()) < 0);
+        }
+        Assert.assertEquals(nItems, 200);
+    }
+
+    @Test
+    public void testParallelSubrangeCompaction() throws IOException {
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration());
+        List<Pair<String, String>> newItems = new ArrayList<>();
+        List<Pair<String, String>> oldItems = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            if (i % 3 == 0)
+                newItems.add(new Pair<>(String.format("key%04d", i), i % 2 == 0 ? null : "new" + i));
+            oldItems.add(new Pair<>(String.format("key%04d", i), "old" + i));
+        }
+        SSTable newer = createSSTable(0, newItems);
+        SSTable older = createSSTable(0, oldItems);
+
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(newer, older));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<SSTable> outputs;
+        try {
+            outputs = new SSTableCompactor(new File(TEST_DB_DIR), 64, 4096, null, pool, null).compact(task);
+        } finally {
+            pool.shutdown();
+        }
+
+        Assert.assertTrue(outputs.size() > 1);
+        outputs.sort(Comparator.comparing(SSTable::getMinKey));
+        List<Pair<String, String>> merged = new ArrayList<>();
+        for (SSTable output : outputs) {
+            output.iterator().forEachRemaining(merged::add);
+        }
+        int n = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (i % 6 == 0)
+                continue;
+            Pair<String, String> item = merged.get(n++);
+            Assert.assertEquals(item.getKey(), String.format("key%04d", i));
+            Assert.assertEquals(item.getValue(), (i % 3 == 0 ? "new" : "old") + i);
+        }
+        Assert.assertEquals(merged.size(), n);
+    }
+
+    private static LsmConfiguration configuration() {
+        LsmConfiguration configuration = new LsmConfiguration();
+        configuration.setLevel0CompactionTrigger(2);
+        configuration.setLevelBaseSize(1024 * 1024);
+        return configuration;
+    }
+
+    @SafeVarargs
+    private static SSTable createSSTable(int level, Pair<String, String>... items) throws IOException {
+        return createSSTable(level, new ArrayList<>(), items);
+    }
+
+    private static SSTable createSSTable(int level, List<Pair<String, String>> items) throws IOException {
+        return createSSTable(level, new ArrayList<>(), items);
+    }
+
+    @SafeVarargs
+    private static SSTable createSSTable(int level, List<RangeTombstone> rangeTombstones, Pair<String, String>... items) throws IOException {
+        List<Pair<String, String>> itemList = new ArrayList<>();
+        for (Pair<String, String> item : items) {
+            itemList.add(item);
+        }
+        return createSSTable(level, rangeTombstones, itemList);
+    }
+
+    private static SSTable createSSTable(int level, List<RangeTombstone> rangeTombstones, List<Pair<String, String>> items) throws IOException {
+        File file = new File(TEST_DB_DIR, DBFilenameUtil.generateNewSSTableDBName());
+        try (SSTableCreator creator = new SSTableCreator(file, items.size(), 64)) {
+            creator.setLevel(level);
+            for (Pair<String, String> item : items) {
+                creator.write(item);
+            }
+            for (RangeTombstone rangeTombstone : rangeTombstones) {
+                creator.addRangeTombstone(rangeTombstone);
+            }
+        }
+        return new SSTable(file);
+    }
+
+    @Test
+    public void testRangeTombstonesDeleteOlderInputs() throws IOException {
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration());
+        List<Pair<String, String>> items = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            items.add(new Pair<>(String.format("key%04d", i), "old" + i));
+        }
+        SSTable newer = createSSTable(0, Arrays.asList(new RangeTombstone("key0050", "key0150")),
+                new Pair<>("key0100", "new"));
+        SSTable older = createSSTable(0, items);
+        SSTable deeper = createSSTable(2, new Pair<>("key0120", "deeper"));
+
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(newer, older, deeper));
+        List<SSTable> outputs = new SSTableCompactor(new File(TEST_DB_DIR), 64, 512, null).compact(task);
+
+        Assert.assertTrue(outputs.size() > 1);
+        List<Pair<String, String>> merged = new ArrayList<>();
+        List<RangeTombstone> rangeTombstones = new ArrayList<>();
+        outputs.sort(Comparator.comparing(SSTable::getMinKey));
+        for (SSTable output : outputs) {
+            output.iterator().forEachRemaining(merged::add);
+            rangeTombstones.addAll(output.getRangeTombstones().getRanges());
+        }
+        Assert.assertEquals(merged.size(), 101);
+        Assert.assertEquals(merged.get(50).getKey(), "key0100");
+        Assert.assertEquals(merged.get(50).getValue(), "new");
+        Assert.assertEquals(merged.get(51).getKey(), "key0150");
+
+        // The tombstone still shadows the deeper level, it is clipped to the outputs without gaps or overlaps
+        Assert.assertEquals(rangeTombstones.get(0).getStartKey(), "key0050");
+        for (int i = 1; i < rangeTombstones.size(); i++) {
+            Assert.assertEquals(rangeTombstones.get(i).getStartKey(), rangeTombstones.get(i - 1).getEndKey());
+        }
+        Assert.assertEquals(rangeTombstones.get(rangeTombstones.size() - 1).getEndKey(), "key0150");
+    }
+
+    @Test
+    public void testRangeTombstonesDroppedAtBottom() throws IOException {
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration());
+        SSTable newer = createSSTable(0, Arrays.asList(new RangeTombstone("a", "c")), new Pair<>("b", null));
+        SSTable older = createSSTable(0, new Pair<>("a", "1"), new Pair<>("c", "1"));
+
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(newer, older));
+        List<SSTable> outputs = new SSTableCompactor(new File(TEST_DB_DIR), 64, 1024 * 1024, null).compact(task);
+
+        Assert.assertEquals(outputs.size(), 1);
+        Assert.assertTrue(outputs.get(0).getRangeTombstones().isEmpty());
+        Assert.assertEquals(outputs.get(0).getNumOfItems(), 1);
+        Assert.assertEquals(outputs.get(0).get("c").getValue(), "1");
+    }
+
+    @Test
+    public void testOutputsKeepSequenceRange() throws IOException {
+        LeveledCompactionStrategy strategy = new LeveledCompactionStrategy(configuration());
+        List<SSTable> inputs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            File file = new File(TEST_DB_DIR, DBFilenameUtil.generateNewSSTableDBName());
+            try (SSTableCreator creator = new SSTableCreator(file, 10, 64)) {
+                creator.setSequenceRange(i * 10 + 1, i * 10 + 10);
+                for (int j = 0; j < 10; j++) {
+                    creator.write(new Pair<>(String.format("key%04d", j * 4 + i), "value"));
+                }
+            }
+            inputs.add(0, new SSTable(file));
+        }
+
+        CompactionTask task = strategy.pickCompaction(inputs);
+        Assert.assertEquals(task.getMinSequence(), 1);
+        Assert.assertEquals(task.getMaxSequence(), 40);
+
+        List<SSTable> outputs = new SSTableCompactor(new File(TEST_DB_DIR), 64, 1024 * 1024, null).compact(task);
+        Assert.assertEquals(outputs.size(), 1);
+        Assert.assertEquals(outputs.get(0).getMinSequence(), 1);
+        Assert.assertEquals(outputs.get(0).getMaxSequence(), 40);
+        Assert.assertEquals(outputs.get(0).getNumOfItems(), 40);
+    }
+}
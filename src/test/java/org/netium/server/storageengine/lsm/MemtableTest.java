@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.netium.util.Pair;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.LongFunction;
+
+@RunWith(Parameterized.class)
+public class MemtableTest {
+    private final LongFunction<Memtable> memtableFactory;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> memtableTypes() {
+        return Arrays.asList(new Object[][] {
+                {"heap", (LongFunction<Memtable>) SkipListMemtable::new},
+                {"offheap", (LongFunction<Memtable>) baseSequence -> new OffHeapMemtable(256, baseSequence)}
+        });
+    }
+
+    public MemtableTest(String type, LongFunction<Memtable> memtableFactory) {
+        this.memtableFactory = memtableFactory;
+    }
+
+    @Test
+    public void testLatestVersionAndTombstone() {
+        Memtable memtable = memtableFactory.apply(0);
+        memtable.put("a", "1");
+        memtable.put("a", "2");
+        memtable.put("b", "3");
+        memtable.delete("b");
+
+        Assert.assertEquals(memtable.get("a"), "2");
+        Assert.assertNotNull(memtable.find("b"));
+        Assert.assertNull(memtable.find("b").getValue());
+        Assert.assertNull(memtable.find("c"));
+    }
+
+    @Test
+    public void testIteratorSeesSnapshot() {
+        Memtable memtable = memtableFactory.apply(0);
+        memtable.put("a", "1");
+        memtable.put("c", "1");
+
+        Iterator<Pair<String, String>> iterator = memtable.iterator();
+        memtable.put("b", "2");
+        memtable.put("c", "2");
+
+        List<Pair<String, String>> items = new ArrayList<>();
+        iterator.forEachRemaining(items::add);
+
+        Assert.assertEquals(items.size(), 2);
+        Assert.assertEquals(items.get(0).getKey(), "a");
+        Assert.assertEquals(items.get(1).getKey(), "c");
+        Assert.assertEquals(items.get(1).getValue(), "1");
+    }
+
+    @Test
+    public void testRawDataSize() {
+        Memtable memtable = memtableFactory.apply(0);
+        memtable.put("k", "é中");
+        memtable.delete("k");
+
+        Assert.assertEquals(memtable.getRawDataSize(), (Short.BYTES + 1 + Integer.BYTES + 5) + (Short.BYTES + 1 + Integer.BYTES));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        final Memtable memtable = memtableFactory.apply(0);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    memtable.put("key-" + id + "-" + i, "value" + i);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        int count = 0;
+        String previousKey = null;
+        for (Pair<String, String> item : memtable) {
+            if (previousKey != null)
+                Assert.assertTrue(previousKey.compareTo(item.getKey()) < 0);
+            previousKey = item.getKey();
+            count++;
+        }
+        Assert.assertEquals(count, 4000);
+    }
+
+    @Test
+    public void testSnapshotWithConcurrentWriters() throws InterruptedException {
+        final Memtable memtable = memtableFactory.apply(100);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    memtable.put("key-" + id + "-" + i, "value" + i);
+                }
+            });
+            writers[t].start();
+        }
+
+        // Every key is written once, so a snapshot holds exactly one key per sequence up to it
+        for (int round = 0; round < 20; round++) {
+            long snapshot = memtable.getSequence();
+            int count = 0;
+            Iterator<Pair<String, String>> iterator = memtable.iterator(snapshot);
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            Assert.assertEquals(count, snapshot - 100);
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Assert.assertEquals(memtable.getSequence(), 100 + 20000);
+    }
+
+    @Test
+    public void testOrderMatchesStringOrder() {
+        Memtable memtable = memtableFactory.apply(0);
+        List<String> keys = Arrays.asList("a", "ab", "b", "é", "中", "\uE000", "\uFFFD", "\uD83D\uDE00", "z");
+        for (String key : keys) {
+            memtable.put(key, key);
+        }
+
+        List<String> expected = new ArrayList<>(keys);
+        Collections.sort(expected);
+        List<String> actual = new ArrayList<>();
+        for (Pair<String, String> item : memtable) {
+            actual.add(item.getKey());
+            Assert.assertEquals(item.getValue(), item.getKey());
+        }
+        Assert.assertEquals(actual, expected);
+        for (String key : keys) {
+            Assert.assertEquals(memtable.get(key), key);
+        }
+    }
+
+    @Test
+    public void testRangeDelete() {
+        Memtable memtable = memtableFactory.apply(0);
+        memtable.put("a", "1");
+        memtable.put("b", "1");
+        memtable.put("c", "1");
+        long beforeDelete = memtable.getSequence();
+        memtable.deleteRange("a", "c");
+        memtable.put("b", "2");
+
+        Assert.assertNull(memtable.find("a").getValue());
+        Assert.assertEquals(memtable.get("b"), "2");
+        Assert.assertEquals(memtable.get("c"), "1");
+        Assert.assertNull(memtable.find("aa").getValue());
+        Assert.assertNull(memtable.find("d"));
+        Assert.assertEquals(memtable.find("a", beforeDelete).getValue(), "1");
+
+        List<Pair<String, String>> items = new ArrayList<>();
+        memtable.iterator().forEachRemaining(items::add);
+        Assert.assertEquals(items.size(), 3);
+        Assert.assertNull(items.get(0).getValue());
+        Assert.assertEquals(items.get(1).getValue(), "2");
+        Assert.assertEquals(items.get(2).getValue(), "1");
+
+        Assert.assertEquals(memtable.getRangeTombstones().size(), 1);
+        Assert.assertTrue(memtable.getRangeTombstones(beforeDelete).isEmpty());
+    }
+
+    @Test
+    public void testMemtableWithOnlyRangeTombstoneIsNotEmpty() {
+        Memtable memtable = memtableFactory.apply(0);
+        memtable.deleteRange("a", "b");
+
+        Assert.assertFalse(memtable.isEmpty());
+        Assert.assertFalse(memtable.iterator().hasNext());
+    }
+
+    @Test
+    public void testIteratorFromStartKey() {
+        Memtable memtable = memtableFactory.apply(0);
+        memtable.put("a", "1");
+        memtable.put("c", "1");
+        memtable.put("c", "2");
+        memtable.put("e", "1");
+
+        List<Pair<String, String>> items = new ArrayList<>();
+        memtable.iterator("b", memtable.getSequence()).forEachRemaining(items::add);
+
+        Assert.assertEquals(items.size(), 2);
+        Assert.assertEquals(items.get(0).getKey(), "c");
+        Assert.assertEquals(items.get(0).getValue(), "2");
+        Assert.assertEquals(items.get(1).getKey(), "e");
+
+        items.clear();
+        memtable.iterator("c", 2).forEachRemaining(items::add);
+        Assert.assertEquals(items.get(0).getValue(), "1");
+    }
+
+    @Test
+    public void testSequenceContinuesFromBase() {
+        Memtable memtable = memtableFactory.apply(0);
+        memtable.put("a", "1");
+        memtable.delete("a");
+        Assert.assertEquals(memtable.getBaseSequence(), 0);
+        Assert.assertEquals(memtable.getSequence(), 2);
+
+        Memtable nextMemtable = memtableFactory.apply(memtable.getSequence());
+        Assert.assertEquals(nextMemtable.getBaseSequence(), 2);
+        Assert.assertEquals(nextMemtable.getSequence(), 2);
+        nextMemtable.put("b", "1");
+        Assert.assertEquals(nextMemtable.getSequence(), 3);
+        Assert.assertNull(nextMemtable.find("b", 2));
+        Assert.assertEquals(nextMemtable.find("b", 3).getValue(), "1");
+    }
+
+    @Test
+    public void testCloseFreesOffHeapArena() {
+        Memtable memtable = memtableFactory.apply(0);
+        Assume.assumeTrue(memtable instanceof OffHeapMemtable);
+
+        BufferPoolMXBean directPool = null;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct"))
+                directPool = pool;
+        }
+        Assume.assumeNotNull(directPool);
+
+        for (int i = 0; i < 1000; i++) {
+            memtable.put("key" + i, "value" + i);
+        }
+        long arenaSize = ((OffHeapMemtable) memtable).getArenaSize();
+        long usedBeforeClose = directPool.getMemoryUsed();
+        memtable.close();
+
+        Assert.assertEquals(((OffHeapMemtable) memtable).getArenaSize(), 0);
+        Assert.assertEquals(directPool.getMemoryUsed(), usedBeforeClose - arenaSize);
+    }
+}
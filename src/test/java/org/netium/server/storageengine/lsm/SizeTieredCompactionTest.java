@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.netium.server.configuration.LsmConfiguration;
+import org.netium.server.storageengine.lsm.sstable.SSTable;
+import org.netium.server.storageengine.lsm.sstable.SSTableCreator;
+import org.netium.util.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SizeTieredCompactionTest {
+    private final static String TEST_DB_DIR = "./testdata/sizetiered/";
+
+    @Before
+    public void cleanupDbFolder() {
+        File dir = new File(TEST_DB_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+
+        for (File file : dir.listFiles(p -> true)) {
+            file.delete();
+        }
+    }
+
+    @After
+    public void removeDbFolder() {
+        File dir = new File(TEST_DB_DIR);
+        for (File file : dir.listFiles(p -> true)) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testPicksRunOfSimilarSizes() throws IOException {
+        SizeTieredCompactionStrategy strategy = new SizeTieredCompactionStrategy(configuration());
+        SSTable small1 = createSSTable("s1", 10);
+        SSTable small2 = createSSTable("s2", 10);
+        SSTable big = createSSTable("b", 1000);
+        SSTable small3 = createSSTable("s3", 10);
+
+        Assert.assertNull(strategy.pickCompaction(Arrays.asList(small3, big, small2, small1)));
+
+        SSTable small4 = createSSTable("s4", 10);
+        SSTable small5 = createSSTable("s5", 10);
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(small5, small4, small3, big, small2, small1));
+
+        Assert.assertNotNull(task);
+        Assert.assertEquals(task.getOutputLevel(), 0);
+        Assert.assertEquals(task.getInputs(), Arrays.asList(small5, small4, small3));
+        Assert.assertEquals(task.getOlderTables(), Arrays.asList(big, small2, small1));
+        Assert.assertFalse(task.canDropTombstones("s20000", "s20000"));
+        Assert.assertTrue(task.canDropTombstones("s30000", "s50009"));
+    }
+
+    @Test
+    public void testMergedSSTableKeepsRecencyPosition() throws IOException {
+        SizeTieredCompactionStrategy strategy = new SizeTieredCompactionStrategy(configuration());
+        SSTable oldest = createSSTable("a", 10);
+        SSTable older = createSSTable("b", 10);
+        SSTable newer = createSSTable("c", 10);
+
+        CompactionTask task = strategy.pickCompaction(Arrays.asList(newer, older, oldest));
+        Assert.assertTrue(task.getOlderTables().isEmpty());
+        Assert.assertTrue(task.canDropTombstones("a0000", "c0009"));
+
+        List<SSTable> outputs = new SSTableCompactor(new File(TEST_DB_DIR), 64, 128, null).compact(task);
+
+        Assert.assertEquals(outputs.size(), 1);
+        Assert.assertEquals(outputs.get(0).getLevel(), 0);
+        Assert.assertEquals(outputs.get(0).getNumOfItems(), 30);
+        Assert.assertEquals(DBFilenameUtil.getFileOrderIndex(outputs.get(0).getFile().getName()),
+                DBFilenameUtil.getFileOrderIndex(newer.getFile().getName()));
+    }
+
+    private static LsmConfiguration configuration() {
+        LsmConfiguration configuration = new LsmConfiguration();
+        configuration.setSizeTieredMinThreshold(3);
+        configuration.setSizeTieredBucketRatio(1.5);
+        return configuration;
+    }
+
+    private static SSTable createSSTable(String prefix, int nItems) throws IOException {
+        File file = new File(TEST_DB_DIR, DBFilenameUtil.generateNewSSTableDBName());
+        List<Pair<String, String>> items = new ArrayList<>();
+        for (int i = 0; i < nItems; i++) {
+            items.add(new Pair<>(String.format("%s%04d", prefix, i), "value" + i));
+        }
+        try (SSTableCreator creator = new SSTableCreator(file, nItems, 64)) {
+            for (Pair<String, String> item : items) {
+                creator.write(item);
+            }
+        }
+        return new SSTable(file);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.netium.util.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class WriteAheadLogTest {
+    private final static String TEST_WAL_DIR = "./testdata/wal/";
+    private final static int SEGMENT_SIZE = 4096;
+
+    @Before
+    public void cleanupWalFolder() {
+        File dir = new File(TEST_WAL_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+
+        File[] files = dir.listFiles(p -> true);
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @After
+    public void removeWalFolder() {
+        File dir = new File(TEST_WAL_DIR);
+        for (File file : dir.listFiles(p -> true)) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReplayAfterAppend() {
+        WriteAheadLog wal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        wal.appendItem("a", "testa");
+        wal.appendItem("b", null);
+        wal.sync();
+        wal.close();
+
+        WriteAheadLog replayWal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        replayWal.prepareForReplay();
+
+        Assert.assertFalse(replayWal.isEof());
+        Pair<String, String> pair = replayWal.replayNextItem();
+        Assert.assertEquals(pair.getKey(), "a");
+        Assert.assertEquals(pair.getValue(), "testa");
+
+        Assert.assertFalse(replayWal.isEof());
+        pair = replayWal.replayNextItem();
+        Assert.assertEquals(pair.getKey(), "b");
+        Assert.assertNull(pair.getValue());
+
+        Assert.assertTrue(replayWal.isEof());
+    }
+
+    @Test
+    public void testReplayAcrossSegments() {
+        WriteAheadLog wal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        for (int i = 0; i < 500; i++) {
+            wal.appendItem("key" + i, "value" + i);
+        }
+        wal.close();
+
+        Assert.assertTrue(new File(TEST_WAL_DIR).listFiles().length > 1);
+
+        WriteAheadLog replayWal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        replayWal.prepareForReplay();
+        for (int i = 0; i < 500; i++) {
+            Pair<String, String> pair = replayWal.replayNextItem();
+            Assert.assertEquals(pair.getKey(), "key" + i);
+            Assert.assertEquals(pair.getValue(), "value" + i);
+        }
+        Assert.assertTrue(replayWal.isEof());
+    }
+
+    @Test
+    public void testReplayStopsAtTornTail() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        wal.appendItem("a", "testa");
+        wal.appendItem("b", "testb");
+        wal.close();
+
+        File segment = new File(TEST_WAL_DIR).listFiles()[0];
+        try (RandomAccessFile segmentAccessFile = new RandomAccessFile(segment, "rw")) {
+            // The last byte of the value of the second record
+            long offset = 8 + (8 + 1 + 1 + 1 + 4 + 5) + (8 + 1 + 1 + 1 + 4 + 4);
+            segmentAccessFile.seek(offset);
+            segmentAccessFile.writeByte('x');
+        }
+
+        WriteAheadLog replayWal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        replayWal.prepareForReplay();
+        Pair<String, String> pair = replayWal.replayNextItem();
+        Assert.assertEquals(pair.getKey(), "a");
+        Assert.assertTrue(replayWal.isEof());
+    }
+
+    @Test
+    public void testRetireSegments() {
+        WriteAheadLog wal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        wal.appendItem("a", "testa");
+        long boundary = wal.startNewSegment();
+        wal.appendItem("b", "testb");
+        wal.retireSegmentsBefore(boundary);
+        wal.close();
+
+        WriteAheadLog replayWal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        replayWal.prepareForReplay();
+        Assert.assertEquals(replayWal.replayNextItem().getKey(), "b");
+        Assert.assertTrue(replayWal.isEof());
+    }
+
+    @Test
+    public void testReplayRangeDelete() {
+        WriteAheadLog wal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        wal.appendItem("a", "testa");
+        wal.appendRangeDelete("a", "c");
+        wal.sync();
+        wal.close();
+
+        WriteAheadLog replayWal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        replayWal.prepareForReplay();
+
+        Assert.assertEquals(replayWal.replayNextRecord().getType(), WriteAheadLogRecord.Type.PUT);
+        WriteAheadLogRecord record = replayWal.replayNextRecord();
+        Assert.assertEquals(record.getType(), WriteAheadLogRecord.Type.DELETE_RANGE);
+        Assert.assertEquals(record.getKey(), "a");
+        Assert.assertEquals(record.getValue(), "c");
+        Assert.assertTrue(replayWal.isEof());
+    }
+
+    @Test
+    public void testRollbackBatch() {
+        WriteAheadLog wal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        wal.appendItem("a", "testa");
+        wal.sync();
+
+        wal.markBatchStart();
+        for (int i = 0; i < 200; i++) {
+            wal.appendItem("key" + i, "value" + i);
+        }
+        Assert.assertTrue(new File(TEST_WAL_DIR).listFiles().length > 1);
+        wal.rollbackBatch();
+        Assert.assertEquals(new File(TEST_WAL_DIR).listFiles().length, 1);
+
+        wal.markBatchStart();
+        wal.appendItem("b", "testb");
+        wal.sync();
+        wal.close();
+
+        WriteAheadLog replayWal = new WriteAheadLog(TEST_WAL_DIR, SEGMENT_SIZE);
+        replayWal.prepareForReplay();
+        Assert.assertEquals(replayWal.replayNextItem().getKey(), "a");
+        Assert.assertEquals(replayWal.replayNextItem().getKey(), "b");
+        Assert.assertTrue(replayWal.isEof());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockCacheTest {
+
+    @Test
+    public void testHitAndMiss() {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        SSTableBlock block = new SSTableBlock(new byte[100]);
+
+        Assert.assertNull(cache.get(1, 0));
+        cache.put(1, 0, block);
+        Assert.assertSame(cache.get(1, 0), block);
+        Assert.assertNull(cache.get(2, 0));
+
+        Assert.assertEquals(cache.getHits(), 1);
+        Assert.assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test
+    public void testEvictionKeepsUsageInBudget() {
+        final long capacity = 16 * 1024;
+        BlockCache cache = new BlockCache(capacity);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(1, i * 512L, new SSTableBlock(new byte[512]));
+        }
+
+        Assert.assertTrue(cache.getUsage() <= capacity);
+        Assert.assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void testInvalidateTable() {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        cache.put(1, 0, new SSTableBlock(new byte[100]));
+        cache.put(2, 0, new SSTableBlock(new byte[100]));
+
+        cache.invalidate(1);
+
+        Assert.assertNull(cache.get(1, 0));
+        Assert.assertNotNull(cache.get(2, 0));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class BlockedBloomFilterTest {
+    private final static int KEYS = 20000;
+
+    private static BlockedBloomFilter createFilter(double falsePositiveRate) {
+        long[] keyHashes = new long[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keyHashes[i] = BlockedBloomFilter.hash("key" + i);
+        }
+        return BlockedBloomFilter.create(keyHashes, KEYS, falsePositiveRate);
+    }
+
+    private static double measureFalsePositiveRate(BlockedBloomFilter filter) {
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (filter.mightContain("absent" + i))
+                falsePositives++;
+        }
+        return (double) falsePositives / KEYS;
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        BlockedBloomFilter filter = createFilter(0.01);
+        for (int i = 0; i < KEYS; i++) {
+            Assert.assertTrue(filter.mightContain("key" + i));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        Assert.assertTrue(measureFalsePositiveRate(createFilter(0.1)) < 0.1 * 1.5);
+        Assert.assertTrue(measureFalsePositiveRate(createFilter(0.01)) < 0.01 * 1.5);
+
+        // A lower rate costs more bits per key
+        Assert.assertTrue(createFilter(0.001).getSizeInBytes() > createFilter(0.01).getSizeInBytes());
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        BlockedBloomFilter filter = createFilter(0.01);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int nbytes = filter.writeTo(new DataOutputStream(output));
+        Assert.assertEquals(nbytes, output.size());
+
+        BlockedBloomFilter loadedFilter = BlockedBloomFilter.readFrom(ByteBuffer.wrap(output.toByteArray()));
+        Assert.assertEquals(loadedFilter.getSizeInBytes(), filter.getSizeInBytes());
+        Assert.assertEquals(loadedFilter.getNumOfHashes(), filter.getNumOfHashes());
+        for (int i = 0; i < KEYS; i++) {
+            Assert.assertEquals(loadedFilter.mightContain("absent" + i), filter.mightContain("absent" + i));
+        }
+    }
+
+    @Test
+    public void testEmptyFilter() {
+        BlockedBloomFilter filter = BlockedBloomFilter.create(new long[0], 0, 0.01);
+        Assert.assertFalse(filter.mightContain("key"));
+    }
+}
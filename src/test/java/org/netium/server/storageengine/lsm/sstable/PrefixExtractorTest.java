@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrefixExtractorTest {
+    @Test
+    public void testFromName() {
+        Assert.assertNull(PrefixExtractor.fromName(null));
+        Assert.assertNull(PrefixExtractor.fromName(PrefixExtractor.NONE));
+        Assert.assertEquals(PrefixExtractor.fromName("fixed:4").getName(), "fixed:4");
+        Assert.assertEquals(PrefixExtractor.fromName("delimiter::").getName(), "delimiter::");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromInvalidName() {
+        PrefixExtractor.fromName("fixed:0");
+    }
+
+    @Test
+    public void testExtract() {
+        PrefixExtractor fixed = PrefixExtractor.fromName("fixed:4");
+        Assert.assertEquals(fixed.extract("user1234"), "user");
+        Assert.assertEquals(fixed.extract("user"), "user");
+        Assert.assertNull(fixed.extract("use"));
+
+        PrefixExtractor delimiter = PrefixExtractor.fromName("delimiter::");
+        Assert.assertEquals(delimiter.extract("tenant1:key:1"), "tenant1:");
+        Assert.assertNull(delimiter.extract("tenant1"));
+    }
+
+    @Test
+    public void testExtractCommonPrefix() {
+        PrefixExtractor delimiter = PrefixExtractor.fromName("delimiter::");
+        Assert.assertEquals(delimiter.extractCommonPrefix("tenant1:", "tenant1;"), "tenant1:");
+        Assert.assertEquals(delimiter.extractCommonPrefix("tenant1:a", "tenant1:b"), "tenant1:");
+        Assert.assertNull(delimiter.extractCommonPrefix("tenant1:", "tenant2:"));
+        Assert.assertNull(delimiter.extractCommonPrefix("tenant1:", null));
+        Assert.assertNull(delimiter.extractCommonPrefix("tenant", "tenant1;"));
+        Assert.assertNull(delimiter.extractCommonPrefix(null, "tenant1;"));
+
+        PrefixExtractor fixed = PrefixExtractor.fromName("fixed:2");
+        Assert.assertEquals(fixed.extractCommonPrefix("ab1", "ab2"), "ab");
+        Assert.assertNull(fixed.extractCommonPrefix("a", "ab"));
+    }
+
+    @Test
+    public void testPrefixEndKey() {
+        Assert.assertEquals(PrefixExtractor.prefixEndKey("ab"), "ac");
+        Assert.assertEquals(PrefixExtractor.prefixEndKey("a" + Character.MAX_VALUE), "b");
+        Assert.assertNull(PrefixExtractor.prefixEndKey(String.valueOf(Character.MAX_VALUE)));
+    }
+}
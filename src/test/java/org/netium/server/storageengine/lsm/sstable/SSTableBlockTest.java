@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
+import org.netium.util.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+public class SSTableBlockTest {
+
+    private static String keyOf(int i) {
+        return String.format("tenant-0042/user/%06d", i);
+    }
+
+    @Test
+    public void testPrefixCompressedBlock() {
+        SSTableBlockBuilder builder = new SSTableBlockBuilder(4);
+        for (int i = 0; i < 100; i += 2) {
+            builder.add(keyOf(i), i % 10 == 0 ? null : "value" + i);
+        }
+        builder.add("tenant-0042/user/été", "unicode");
+        SSTableBlock block = new SSTableBlock(builder.finish(), 4);
+
+        for (int i = 0; i < 100; i++) {
+            Pair<String, String> keyValuePair = block.find(keyOf(i));
+            if (i % 2 != 0) {
+                Assert.assertNull(keyValuePair);
+            } else {
+                Assert.assertEquals(keyValuePair.getKey(), keyOf(i));
+                Assert.assertEquals(keyValuePair.getValue(), i % 10 == 0 ? null : "value" + i);
+            }
+        }
+        Assert.assertNull(block.find("a"));
+        Assert.assertNull(block.find("z"));
+        Assert.assertEquals(block.find("tenant-0042/user/été").getValue(), "unicode");
+        Assert.assertEquals(block.getLastKey(), "tenant-0042/user/été");
+
+        Iterator<Pair<String, String>> iterator = block.iterator(keyOf(51));
+        for (int i = 52; i < 100; i += 2) {
+            Assert.assertTrue(iterator.hasNext());
+            Assert.assertEquals(iterator.next().getKey(), keyOf(i));
+        }
+        Assert.assertEquals(iterator.next().getValue(), "unicode");
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testPrefixCompressionShrinksBlock() throws IOException {
+        SSTableBlockBuilder builder = new SSTableBlockBuilder(SSTableConstants.DEFAULT_RESTART_INTERVAL);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            builder.add(keyOf(i), "v");
+            KeyValuePairCoder.pack(new Pair<>(keyOf(i), "v"), plain);
+        }
+        Assert.assertTrue(builder.finish().length * 2 < plain.size());
+    }
+
+    @Test
+    public void testPlainBlock() throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            KeyValuePairCoder.pack(new Pair<>(keyOf(i), i == 5 ? null : "value" + i), plain);
+        }
+        SSTableBlock block = new SSTableBlock(plain.toByteArray());
+
+        Assert.assertEquals(block.find(keyOf(3)).getValue(), "value3");
+        Assert.assertNull(block.find(keyOf(5)).getValue());
+        Assert.assertNull(block.find(keyOf(10)));
+        Assert.assertEquals(block.getLastKey(), keyOf(9));
+        Assert.assertEquals(block.iterator(keyOf(8)).next().getKey(), keyOf(8));
+    }
+
+    @Test
+    public void testBlockInDirectBufferSlice() {
+        SSTableBlockBuilder builder = new SSTableBlockBuilder(3);
+        for (int i = 0; i < 20; i++) {
+            builder.add(keyOf(i), "value" + i);
+        }
+        byte[] blockData = builder.finish();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(blockData.length + 16);
+        buffer.position(8);
+        buffer.put(blockData);
+        buffer.position(8);
+        buffer.limit(8 + blockData.length);
+        SSTableBlock block = new SSTableBlock(buffer, 3);
+
+        Assert.assertEquals(block.getSize(), blockData.length);
+        Assert.assertEquals(block.find(keyOf(13)).getValue(), "value13");
+        Assert.assertNull(block.find(keyOf(20)));
+        Assert.assertEquals(block.getLastKey(), keyOf(19));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.netium.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SSTableMergeIteratorTest {
+
+    @Test
+    public void testNewestReaderWins() {
+        SSTableMergeIterator iterator = new SSTableMergeIterator(Arrays.asList(
+                reader(new Pair<>("b", "new"), new Pair<>("d", null)),
+                reader(new Pair<>("a", "old"), new Pair<>("b", "old"), new Pair<>("d", "old")),
+                reader(new Pair<>("b", "oldest"), new Pair<>("c", "oldest"))
+        ));
+
+        List<Pair<String, String>> items = new ArrayList<>();
+        iterator.forEachRemaining(items::add);
+
+        Assert.assertEquals(items.size(), 4);
+        assertItem(items.get(0), "a", "old");
+        assertItem(items.get(1), "b", "new");
+        assertItem(items.get(2), "c", "oldest");
+        assertItem(items.get(3), "d", null);
+    }
+
+    @Test
+    public void testManyReaders() {
+        List<SSTableSequenceReader> readers = new ArrayList<>();
+        for (int r = 0; r < 50; r++) {
+            List<Pair<String, String>> items = new ArrayList<>();
+            for (int i = r; i < 1000; i += 50) {
+                items.add(new Pair<>(String.format("key%04d", i), "value" + i));
+            }
+            readers.add(new SSTableSequenceReader(items.iterator()));
+        }
+        readers.add(new SSTableSequenceReader(Collections.emptyIterator()));
+
+        SSTableMergeIterator iterator = new SSTableMergeIterator(readers);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(iterator.hasNext());
+            assertItem(iterator.next(), String.format("key%04d", i), "value" + i);
+        }
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @SafeVarargs
+    private static SSTableSequenceReader reader(Pair<String, String>... items) {
+        return new SSTableSequenceReader(Arrays.asList(items).iterator());
+    }
+
+    private static void assertItem(Pair<String, String> item, String key, String value) {
+        Assert.assertEquals(item.getKey(), key);
+        Assert.assertEquals(item.getValue(), value);
+    }
+}
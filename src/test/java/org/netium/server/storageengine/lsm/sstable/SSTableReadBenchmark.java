@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.sstable;
+
+import org.netium.util.Pair;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares SSTable.get(), which decodes the block in place in the mapped data section, with the former
+ * open-seek-read-close path. The table has no block cache, so every lookup goes to the mapping. Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.netium.server.storageengine.lsm.sstable.SSTableReadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SSTableReadBenchmark {
+    private final static int KEYS = 100_000;
+
+    private File file;
+    private SSTable table;
+
+    @Setup
+    public void createTable() throws IOException {
+        file = File.createTempFile("benchmark", ".sstable");
+        try (SSTableCreator creator = new SSTableCreator(file, KEYS)) {
+            for (int i = 0; i < KEYS; i++) {
+                creator.write(new Pair<>(keyOf(i), "value" + i));
+            }
+        }
+        table = new SSTable(file);
+    }
+
+    @TearDown
+    public void deleteTable() throws Exception {
+        table.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public Pair<String, String> mappedRead() throws IOException {
+        return table.get(randomKey());
+    }
+
+    @Benchmark
+    public Pair<String, String> openSeekReadClose() throws IOException {
+        String key = randomKey();
+        SSTableIndex index = table.getIndex();
+        int block = index.findBlock(key);
+        try (RandomAccessFile readFile = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[index.getSize(block)];
+            readFile.seek(index.getOffset(block));
+            readFile.readFully(data);
+            return new SSTableBlock(data, table.getRestartInterval()).find(key);
+        }
+    }
+
+    private static String randomKey() {
+        return keyOf(ThreadLocalRandom.current().nextInt(KEYS));
+    }
+
+    private static String keyOf(int i) {
+        return String.format("key%08d", i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] {1, 4}) {
+            Options options = new OptionsBuilder()
+                    .include(SSTableReadBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -12,14 +12,23 @@
 
 package org.netium.server.storageengine.lsm.sstable;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.netium.server.storageengine.lsm.utils.KeyValuePairCoder;
 import org.netium.util.Pair;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 public class SSTableReadWriteTest {
     private final static String TEST_DATA_DIR = "./testdata/";
@@ -37,6 +46,15 @@ public class SSTableReadWriteTest {
         }
     }
 
+    @After
+    public void removeSSTableFiles() {
+        File dir = new File(TEST_DATA_DIR);
+        for (File file : dir.listFiles(p -> true)) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
     @Test
     public void testReadAfterWrite() throws IOException {
         File file = new File(TEST_DATA_DIR + "test1.sstable");
@@ -72,4 +90,309 @@ public class SSTableReadWriteTest {
 
         Assert.assertFalse(sstableIterator.hasNext());
     }
+
+    @Test
+    public void testReadAfterWriteMultipleBlocks() throws IOException {
+        File file = new File(TEST_DATA_DIR + "test2.sstable");
+        SSTableCreator creator = new SSTableCreator(file, 1000, 64);
+        for (int i = 0; i < 1000; i += 2) {
+            creator.write(new Pair<>(String.format("key%04d", i), "value" + i));
+        }
+        creator.close();
+
+        SSTable table = new SSTable(file);
+        Assert.assertEquals(table.getNumOfItems(), 500);
+
+        for (int i = 0; i < 1000; i++) {
+            Pair<String, String> keyValuePair = table.get(String.format("key%04d", i));
+            if (i % 2 == 0) {
+                Assert.assertEquals(keyValuePair.getValue(), "value" + i);
+            } else {
+                Assert.assertNull(keyValuePair);
+            }
+        }
+        Assert.assertNull(table.get("a"));
+        Assert.assertNull(table.get("z"));
+
+        Iterator<Pair<String, String>> sstableIterator = table.iterator();
+        for (int i = 0; i < 1000; i += 2) {
+            Assert.assertTrue(sstableIterator.hasNext());
+            Assert.assertEquals(sstableIterator.next().getKey(), String.format("key%04d", i));
+        }
+        Assert.assertFalse(sstableIterator.hasNext());
+
+        Iterator<Pair<String, String>> rangeIterator = table.iterator("key0101", "key0301");
+        for (int i = 102; i <= 300; i += 2) {
+            Assert.assertTrue(rangeIterator.hasNext());
+            Assert.assertEquals(rangeIterator.next().getKey(), String.format("key%04d", i));
+        }
+        Assert.assertFalse(rangeIterator.hasNext());
+    }
+
+    @Test
+    public void testRangeTombstones() throws IOException {
+        File file = new File(TEST_DATA_DIR + "test3.sstable");
+        SSTableCreator creator = new SSTableCreator(file, 10, 64);
+        creator.write(new Pair<>("key5", "value5"));
+        creator.addRangeTombstone(new RangeTombstone("key7", "key9"));
+        creator.addRangeTombstone(new RangeTombstone("key1", "key3"));
+        creator.addRangeTombstone(new RangeTombstone("key2", "key4"));
+        creator.close();
+
+        SSTable table = new SSTable(file);
+        Assert.assertEquals(table.getMinKey(), "key1");
+        Assert.assertEquals(table.getMaxKey(), "key9");
+        Assert.assertEquals(table.getRangeTombstones().size(), 2);
+        Assert.assertTrue(table.getRangeTombstones().covers("key1"));
+        Assert.assertTrue(table.getRangeTombstones().covers("key35"));
+        Assert.assertFalse(table.getRangeTombstones().covers("key4"));
+        Assert.assertFalse(table.getRangeTombstones().covers("key9"));
+        Assert.assertEquals(table.get("key5").getValue(), "value5");
+    }
+
+    @Test
+    public void testCompressedBlocks() throws Exception {
+        File compressedFile = new File(TEST_DATA_DIR + "test4.sstable");
+        File plainFile = new File(TEST_DATA_DIR + "test5.sstable");
+        try (SSTableCreator compressedCreator = new SSTableCreator(compressedFile, 1000, 256);
+             SSTableCreator plainCreator = new SSTableCreator(plainFile, 1000, 256)) {
+            compressedCreator.setCompression(BlockCompression.DEFLATE);
+            for (int i = 0; i < 1000; i++) {
+                Pair<String, String> keyValuePair = new Pair<>(String.format("key%04d", i), i % 10 == 0 ? null : "value" + i);
+                compressedCreator.write(keyValuePair);
+                plainCreator.write(keyValuePair);
+            }
+        }
+
+        // A compressed and an uncompressed table are readable side by side through the same block cache
+        BlockCache blockCache = new BlockCache(1024 * 1024);
+        try (SSTable compressedTable = new SSTable(compressedFile, blockCache);
+             SSTable plainTable = new SSTable(plainFile, blockCache)) {
+            Assert.assertEquals(compressedTable.getCompression(), BlockCompression.DEFLATE);
+            Assert.assertEquals(plainTable.getCompression(), BlockCompression.NONE);
+            Assert.assertTrue(compressedFile.length() < plainFile.length());
+            Assert.assertEquals(compressedTable.getMaxKey(), "key0999");
+
+            for (int i = 0; i < 1000; i++) {
+                String key = String.format("key%04d", i);
+                Assert.assertEquals(compressedTable.get(key).getKey(), key);
+                Assert.assertEquals(compressedTable.get(key).getValue(), i % 10 == 0 ? null : "value" + i);
+                Assert.assertEquals(plainTable.get(key).getValue(), compressedTable.get(key).getValue());
+            }
+
+            Iterator<Pair<String, String>> compressedIterator = compressedTable.iterator("key0500", null);
+            Iterator<Pair<String, String>> plainIterator = plainTable.iterator("key0500", null);
+            while (plainIterator.hasNext()) {
+                Assert.assertTrue(compressedIterator.hasNext());
+                Pair<String, String> compressedItem = compressedIterator.next();
+                Pair<String, String> plainItem = plainIterator.next();
+                Assert.assertEquals(compressedItem.getKey(), plainItem.getKey());
+                Assert.assertEquals(compressedItem.getValue(), plainItem.getValue());
+            }
+            Assert.assertFalse(compressedIterator.hasNext());
+        }
+    }
+
+    @Test
+    public void testMappedBlocksCached() throws Exception {
+        File file = new File(TEST_DATA_DIR + "test12.sstable");
+        try (SSTableCreator creator = new SSTableCreator(file, 1000, 256)) {
+            for (int i = 0; i < 1000; i++) {
+                creator.write(new Pair<>(String.format("key%04d", i), "value" + i));
+            }
+        }
+
+        BlockCache blockCache = new BlockCache(1024 * 1024);
+        SSTable table = new SSTable(file, blockCache);
+        Assert.assertEquals(table.getCompression(), BlockCompression.NONE);
+        long misses = blockCache.getMisses();
+        Assert.assertEquals(table.get("key0500").getValue(), "value500");
+        Assert.assertEquals(table.get("key0501").getValue(), "value501");
+        Assert.assertEquals(blockCache.getMisses(), misses + 1);
+        Assert.assertEquals(blockCache.getHits(), 1);
+        Assert.assertTrue(blockCache.getUsage() > 0);
+
+        // Closing the table unmaps the data section, the cached blocks are copies and are dropped with it
+        table.close();
+        Assert.assertEquals(blockCache.getUsage(), 0);
+    }
+
+    @Test
+    public void testIndexLoadedOnFirstAccess() throws Exception {
+        File file = new File(TEST_DATA_DIR + "test6.sstable");
+        try (SSTableCreator creator = new SSTableCreator(file, 100, 64)) {
+            for (int i = 0; i < 100; i++) {
+                creator.write(new Pair<>(String.format("key%03d", i), "value" + i));
+            }
+        }
+
+        try (SSTable table = new SSTable(file)) {
+            Assert.assertFalse(table.isIndexLoaded());
+            Assert.assertEquals(table.getMinKey(), "key000");
+            Assert.assertEquals(table.getMaxKey(), "key099");
+            Assert.assertTrue(table.overlaps("key050", "key060"));
+            Assert.assertNull(table.get("a"));
+            Assert.assertFalse(table.isIndexLoaded());
+
+            Assert.assertEquals(table.get("key042").getValue(), "value42");
+            Assert.assertTrue(table.isIndexLoaded());
+            Assert.assertTrue(table.getNumOfBlocks() > 1);
+        }
+    }
+
+    @Test
+    public void testLegacyTableWithoutIndex() throws Exception {
+        // A version 1.0 table with the data section of plain records and a Guava bloom filter
+        File file = new File(TEST_DATA_DIR + "test7.sstable");
+        try (RandomAccessFile legacyFile = new RandomAccessFile(file, "rw")) {
+            legacyFile.write(new byte[] {'Z', 'E', 'U', 'S', 'S', 'S', 'T', 'A', 'B', 'L', 'E', 1, 0});
+            SSTableSectionHeader dataSectionHeader = new SSTableSectionHeader(SSTableConstants.DATA_SECTION_NAME_BYTES, legacyFile.getFilePointer(), 0);
+            dataSectionHeader.write(legacyFile);
+            long dataStart = legacyFile.getFilePointer();
+            for (int i = 0; i < 1000; i++) {
+                legacyFile.write(KeyValuePairCoder.pack(new Pair<>(String.format("key%04d", i), i == 7 ? null : "value" + i)));
+            }
+            dataSectionHeader.setSize(legacyFile.getFilePointer() - dataStart);
+            dataSectionHeader.writeByOffset(legacyFile);
+
+            BloomFilter<String> filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), 1000, 0.1);
+            for (int i = 0; i < 1000; i++) {
+                filter.put(String.format("key%04d", i));
+            }
+            SSTableSectionHeader bloomFilterSectionHeader = new SSTableSectionHeader(SSTableConstants.BLOOMFILTER_SECTION_NAME_BYTES, legacyFile.getFilePointer(), 0);
+            bloomFilterSectionHeader.write(legacyFile);
+            long bloomFilterStart = legacyFile.getFilePointer();
+            filter.writeTo(Channels.newOutputStream(legacyFile.getChannel()));
+            bloomFilterSectionHeader.setSize(legacyFile.getFilePointer() - bloomFilterStart);
+            bloomFilterSectionHeader.writeByOffset(legacyFile);
+        }
+
+        try (SSTable table = new SSTable(file)) {
+            Assert.assertEquals(table.getMinKey(), "key0000");
+            Assert.assertEquals(table.getMaxKey(), "key0999");
+            Assert.assertTrue(table.getNumOfBlocks() > 1);
+            Assert.assertEquals(table.get("key0500").getValue(), "value500");
+            Assert.assertNull(table.get("key0007").getValue());
+            Assert.assertNull(table.get("key1000"));
+            Assert.assertEquals(table.getBloomFilterProbes(), 3);
+
+            int count = 0;
+            for (Pair<String, String> ignored : table) {
+                count++;
+            }
+            Assert.assertEquals(count, 1000);
+        }
+    }
+
+    @Test
+    public void testSummaryStatistics() throws Exception {
+        File file = new File(TEST_DATA_DIR + "test8.sstable");
+        try (SSTableCreator creator = new SSTableCreator(file, 10)) {
+            creator.setSequenceRange(101, 130);
+            creator.write(new Pair<>("key1", "value1"));
+            creator.write(new Pair<>("key2", null));
+            creator.write(new Pair<>("key3", "value3"));
+            creator.addRangeTombstone(new RangeTombstone("key5", "key6"));
+        }
+
+        try (SSTable table = new SSTable(file)) {
+            Assert.assertEquals(table.getNumOfItems(), 3);
+            Assert.assertEquals(table.getNumOfDeletedItems(), 1);
+            Assert.assertEquals(table.getMinSequence(), 101);
+            Assert.assertEquals(table.getMaxSequence(), 130);
+            Assert.assertEquals(table.getMinKey(), "key1");
+            Assert.assertEquals(table.getMaxKey(), "key6");
+            Assert.assertFalse(table.overlaps("key7", "key7"));
+            Assert.assertTrue(table.overlaps("key55", "key55"));
+        }
+    }
+
+    @Test
+    public void testBloomFilterCounters() throws Exception {
+        File file = new File(TEST_DATA_DIR + "test9.sstable");
+        try (SSTableCreator creator = new SSTableCreator(file, 10)) {
+            creator.setBloomFilterFalsePositiveRate(0.001);
+            for (int i = 0; i < 1000; i++) {
+                creator.write(new Pair<>(String.format("key%04d", i * 2), "value"));
+            }
+        }
+
+        try (SSTable table = new SSTable(file)) {
+            for (int i = 0; i < 2000; i++) {
+                table.get(String.format("key%04d", i));
+            }
+            Assert.assertEquals(table.getBloomFilterProbes(), 2000);
+            Assert.assertEquals(table.getBloomFilterNegatives() + table.getBloomFilterFalsePositives(), 1000);
+            Assert.assertTrue(table.getBloomFilterFalsePositives() < 10);
+        }
+    }
+
+    @Test
+    public void testPrefixBloomFilter() throws Exception {
+        File file = new File(TEST_DATA_DIR + "test10.sstable");
+        try (SSTableCreator creator = new SSTableCreator(file, 10)) {
+            creator.setPrefixExtractor(PrefixExtractor.fromName("delimiter::"));
+            for (int tenant = 0; tenant < 100; tenant += 2) {
+                for (int i = 0; i < 10; i++) {
+                    creator.write(new Pair<>(String.format("tenant%03d:key%d", tenant, i), "value"));
+                }
+            }
+        }
+
+        try (SSTable table = new SSTable(file)) {
+            for (int tenant = 0; tenant < 100; tenant += 2) {
+                Assert.assertTrue(table.mightContainKeys(String.format("tenant%03d:", tenant), String.format("tenant%03d;", tenant)));
+            }
+            int negatives = 0;
+            for (int tenant = 1; tenant < 100; tenant += 2) {
+                if (!table.mightContainKeys(String.format("tenant%03d:", tenant), String.format("tenant%03d;", tenant)))
+                    negatives++;
+            }
+            Assert.assertTrue(negatives > 45);
+            Assert.assertEquals(table.getPrefixFilterNegatives(), negatives);
+
+            // A range over several prefixes cannot be decided by the filter
+            Assert.assertTrue(table.mightContainKeys("tenant001:", "tenant003:"));
+            Assert.assertEquals(table.getPrefixFilterProbes(), 100);
+        }
+    }
+
+    @Test
+    public void testMultiGet() throws Exception {
+        File file = new File(TEST_DATA_DIR + "test11.sstable");
+        try (SSTableCreator creator = new SSTableCreator(file, 1000, 1024)) {
+            creator.setCompression(BlockCompression.DEFLATE);
+            for (int i = 0; i < 1000; i += 2) {
+                creator.write(new Pair<>(String.format("key%04d", i), i % 10 == 0 ? null : "value" + i));
+            }
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add(String.format("key%04d", i));
+        }
+        keys.add("key9999");
+
+        BlockCache blockCache = new BlockCache(1024 * 1024);
+        try (SSTable table = new SSTable(file, blockCache)) {
+            List<Pair<String, String>> keyValuePairs = table.multiGet(keys);
+            Assert.assertEquals(keyValuePairs.size(), keys.size());
+            // The keys all fall into the first block, which is read once
+            Assert.assertEquals(blockCache.getMisses(), 1);
+
+            for (int i = 0; i < keys.size(); i++) {
+                Pair<String, String> expected = table.get(keys.get(i));
+                Pair<String, String> actual = keyValuePairs.get(i);
+                if (expected == null) {
+                    Assert.assertNull(actual);
+                } else {
+                    Assert.assertEquals(actual.getKey(), expected.getKey());
+                    Assert.assertEquals(actual.getValue(), expected.getValue());
+                }
+            }
+            Assert.assertNull(keyValuePairs.get(1));
+            Assert.assertNull(keyValuePairs.get(10).getValue());
+            Assert.assertEquals(keyValuePairs.get(12).getValue(), "value12");
+        }
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018.
+ *
+ * Author: Netium (Bo Zhou)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package org.netium.server.storageengine.lsm.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class IoRateLimiterTest {
+
+    @Test
+    public void testThrottlesToTheRate() throws Exception {
+        IoRateLimiter limiter = new IoRateLimiter(1024 * 1024, () -> false);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 32; i++) {
+            limiter.acquire(16 * 1024);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 512 KiB at 1 MiB/s, the empty bucket has no burst to spend
+        Assert.assertTrue("Took only " + elapsedMillis + " ms", elapsedMillis >= 400);
+    }
+
+    @Test
+    public void testBypass() throws Exception {
+        IoRateLimiter limiter = new IoRateLimiter(1024, () -> true);
+
+        long start = System.nanoTime();
+        limiter.acquire(1024 * 1024);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        new IoRateLimiter(0, () -> false);
+    }
+}
@@ -16,7 +16,9 @@ import org.netium.util.Pair;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class KeyValuePairCoderTest {
     @Test
@@ -97,4 +99,27 @@ public class KeyValuePairCoderTest {
         Assert.assertEquals(keyValuePair.getKey(), "a");
         Assert.assertEquals(keyValuePair.getValue(), null);
     }
+
+    @Test
+    public void testPackV2() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Assert.assertEquals(KeyValuePairCoder.packV2(new Pair<>("a", "ab"), outputStream), 1 + 1 + 1 + 2);
+        Assert.assertEquals(KeyValuePairCoder.packV2(new Pair<>("b", null), outputStream), 1 + 1 + 1);
+        Assert.assertEquals(KeyValuePairCoder.packV2(new Pair<>("c", ""), outputStream), 1 + 1 + 1);
+
+        byte[] buf = outputStream.toByteArray();
+        Assert.assertArrayEquals(buf, new byte[] {1, 3, 'a', 'a', 'b', 1, 0, 'b', 1, 1, 'c'});
+
+        ByteBuffer buffer = ByteBuffer.wrap(buf);
+        Pair<String, String> keyValuePair = KeyValuePairCoder.unpackV2(buffer);
+        Assert.assertEquals(keyValuePair.getKey(), "a");
+        Assert.assertEquals(keyValuePair.getValue(), "ab");
+        keyValuePair = KeyValuePairCoder.unpackV2(buffer);
+        Assert.assertEquals(keyValuePair.getKey(), "b");
+        Assert.assertEquals(keyValuePair.getValue(), null);
+        keyValuePair = KeyValuePairCoder.unpackV2(buffer);
+        Assert.assertEquals(keyValuePair.getKey(), "c");
+        Assert.assertEquals(keyValuePair.getValue(), "");
+        Assert.assertFalse(buffer.hasRemaining());
+    }
 }
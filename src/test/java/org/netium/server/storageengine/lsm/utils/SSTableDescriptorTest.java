@@ -32,7 +32,7 @@ public class SSTableDescriptorTest {
 
         Assert.assertEquals(buf.length, 11 + 1 + 1);
         Assert.assertEquals(buf[buf.length - 2], 1);
-        Assert.assertEquals(buf[buf.length - 1], 0);
+        Assert.assertEquals(buf[buf.length - 1], 1);
     }
 
     @Test
@@ -42,6 +42,20 @@ public class SSTableDescriptorTest {
         Assert.assertTrue(ret);
     }
 
+    @Test
+    public void testReadMinorVersion() throws IOException {
+        byte[] buf = new byte[] {'Z', 'E', 'U', 'S', 'S', 'S', 'T', 'A', 'B', 'L', 'E', 1, 0};
+        Assert.assertEquals(SSTableDescriptor.readMinorVersion(buf, 0), SSTableDescriptor.MINOR_VER_FIXED_WIDTH_RECORDS);
+
+        buf[buf.length - 1] = 1;
+        Assert.assertEquals(SSTableDescriptor.readMinorVersion(buf, 0), SSTableDescriptor.MINOR_VER_VARINT_RECORDS);
+        Assert.assertTrue(SSTableDescriptor.isValidDescriptor(buf, 0));
+
+        buf[buf.length - 1] = 2;
+        Assert.assertEquals(SSTableDescriptor.readMinorVersion(buf, 0), -1);
+        Assert.assertFalse(SSTableDescriptor.isValidDescriptor(buf, 0));
+    }
+
     @Test
     public void testIsValidSSTableDescriptorInvalidVersion() throws IOException {
         byte[] buf = new byte[] {'Z', 'E', 'U', 'S', 'S', 'S', 'T', 'A', 'B', 'L', 'E', 2, 0};